@@ -1,14 +1,15 @@
 package com.vmware.vchs.api.samples.ondemand.details;
 
 import java.util.Collection;
-import java.util.List;
 
-import com.google.gson.Gson;
+import com.vmware.vchs.api.samples.ondemand.endtoend.RecordedTraffic;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.Compute;
 import com.vmware.vchs.api.samples.services.IAM;
-import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.RecordReplayTransport;
+import com.vmware.vchs.api.samples.services.sc.InstanceRegistry;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
@@ -16,7 +17,8 @@ import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
 
 /**
  * This helper class will list all the vdc ids and vm ids accessible to the logged in user. It's
- * primarily useful for getting the L1 and L2 ids for metering and billing API calls.
+ * primarily useful for getting the L1 and L2 ids for metering and billing API calls. With --record
+ * the API calls of the run are saved to a file, with --replay the run is answered from one.
  */
 public class ListVdcAndVmIds {
     private SampleCommandLineOptions options = null;
@@ -37,6 +39,21 @@ public class ListVdcAndVmIds {
         // process arguments
         options.parseOptions(args);
 
+        // Record the calls of the run, or answer them from a recording, as the options ask
+        RecordReplayTransport traffic = RecordedTraffic.begin(options);
+        try {
+            run(null == traffic);
+        } finally {
+            RecordedTraffic.end(options, traffic);
+        }
+    }
+
+    /**
+     * @param pooled
+     *            true to connect to every region up front through a connection pool, false when
+     *            a recording or replaying transport is bound and answers every call instead
+     */
+    private void run(boolean pooled) {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
         authToken = IAM.login(options.hostname, options.username, options.password, options.version);
@@ -44,57 +61,68 @@ public class ListVdcAndVmIds {
         if (null != authToken) {
             System.out.println("Success\n");
 
-            // Retrieve service controller instances available for authenticated user
-            List<InstanceType> instances = ServiceController.getInstances(options.hostname,
-                    options.version, authToken);
-
-            if (null != instances && instances.size() > 0) {
-                for (InstanceType instance : instances) {
-                    // for each instance that is a COMPUTE type, get all the VDCs, then for each
-                    // get all VMs, displaying VDC and VM ids.
-                    if (instance.getName().equalsIgnoreCase("Virtual Private Cloud OnDemand")) {
-                        // get the compute service api and org info
-                        Gson gson = new Gson();
-                        InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
-                                InstanceAttribute.class);
-
-                        // Log in to compute API
-                        System.out.print("Logging in to compute instance - region: "
-                                + instance.getRegion() + "...");
-                        String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                                options.password, ia.getOrgName(), options.version);
-                        if (null != vcdToken) {
-                            System.out.println("Success.\n");
-                            OrgListType org = Compute.getOrgDetails(instance.getApiUrl(), vcdToken,
-                                    options.version);
-
-                            if (null != org) {
-                                Collection<VdcType> vdcs = Compute.getVDCsForOrgs(org, vcdToken,
-                                        options.version);
-
-                                if (null != vdcs && vdcs.size() > 0) {
-                                    for (VdcType vdc : vdcs) {
-                                        System.out.println("VDC " + vdc.getName() + "  ID: "
-                                                + parseVdcId(vdc.getId()));
-                                        Collection<VmType> vms = Compute.getVmsForVdc(vdc,
-                                                vcdToken, options.version);
-                                        if (null != vms) {
-                                            for (VmType vm : vms) {
-                                                System.out.println("VM " + vm.getName() + "  ID: "
-                                                        + parseVmId(vm.getId()));
+            // Load the service controller instances available for authenticated user
+            InstanceRegistry registry = new InstanceRegistry(options.hostname, options.version,
+                    authToken);
+
+            if (registry.refresh()) {
+                // Every region is visited in turn, connect to all of them up front in parallel
+                if (pooled) {
+                    HttpUtils.enableConnectionPool(options.inflight);
+                    HttpUtils.warmUp(registry.getEndpoints(), 1);
+                }
+
+                try {
+                    for (InstanceType instance : registry.getAll()) {
+                        // for each instance that is a COMPUTE type, get all the VDCs, then for each
+                        // get all VMs, displaying VDC and VM ids.
+                        if (instance.getName().equalsIgnoreCase("Virtual Private Cloud OnDemand")) {
+                            // get the compute service api and org info
+                            InstanceAttribute ia = registry.getAttribute(instance);
+
+                            // Log in to compute API
+                            System.out.print("Logging in to compute instance - region: "
+                                    + instance.getRegion() + "...");
+                            String vcdToken = Compute.login(ia.getSessionUri(), options.username,
+                                    options.password, ia.getOrgName(), options.version);
+                            if (null != vcdToken) {
+                                System.out.println("Success.\n");
+                                OrgListType org = Compute.getOrgDetails(instance.getApiUrl(),
+                                        vcdToken, options.version);
+
+                                if (null != org) {
+                                    Collection<VdcType> vdcs = Compute.getVDCsForOrgs(org, vcdToken,
+                                            options.version);
+
+                                    if (null != vdcs && vdcs.size() > 0) {
+                                        for (VdcType vdc : vdcs) {
+                                            System.out.println("VDC " + vdc.getName() + "  ID: "
+                                                    + parseVdcId(vdc.getId()));
+                                            Collection<VmType> vms = Compute.getVmsForVdc(vdc,
+                                                    vcdToken, options.version);
+                                            if (null != vms) {
+                                                for (VmType vm : vms) {
+                                                    System.out.println("VM " + vm.getName()
+                                                            + "  ID: " + parseVmId(vm.getId()));
+                                                }
+                                            } else {
+                                                System.out.println("No VMs found.");
                                             }
-                                        } else {
-                                            System.out.println("No VMs found.");
                                         }
                                     }
-                                }
 
-                                System.out.println();
+                                    System.out.println();
+                                }
+                            } else {
+                                System.out.println(
+                                        "Could not log in to compute with credentials\n");
                             }
-                        } else {
-                            System.out.println("Could not log in to compute with credentials\n");
                         }
                     }
+                } finally {
+                    if (pooled) {
+                        HttpUtils.disableConnectionPool();
+                    }
                 }
             }
         }
@@ -3,12 +3,11 @@ package com.vmware.vchs.api.samples.ondemand.details;
 import java.util.Collection;
 import java.util.List;
 
-import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.Compute;
 import com.vmware.vchs.api.samples.services.IAM;
-import com.vmware.vchs.api.samples.services.ServiceController;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.sc.InstanceRegistry;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.AvailableNetworksType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
@@ -47,22 +46,17 @@ public class ListVdcsAndTemplates {
         if (null != authToken) {
             System.out.println("Success\n");
 
-            // Retrieve service controller instances available for authenticated user
-            List<InstanceType> instances = ServiceController.getInstances(options.hostname,
-                    options.version, authToken);
+            // Load the service controller instances available for authenticated user, indexed
+            // by region
+            InstanceRegistry registry = new InstanceRegistry(options.hostname, options.version,
+                    authToken);
             InstanceType computeInstance = null;
-            if (null != instances && instances.size() > 0) {
-                for (InstanceType instance : instances) {
-                    if (instance.getRegion().toLowerCase().equalsIgnoreCase(options.region)) {
-                        computeInstance = instance;
-                    }
-                }
+            if (registry.refresh()) {
+                computeInstance = registry.getFirstByRegion(options.region);
             }
 
             if (null != computeInstance) {
-                Gson gson = new Gson();
-                InstanceAttribute ia = gson.fromJson(computeInstance.getInstanceAttributes(),
-                        InstanceAttribute.class);
+                InstanceAttribute ia = registry.getAttribute(computeInstance);
 
                 // Log in to compute API
                 System.out.print("Logging in to compute...");
@@ -0,0 +1,134 @@
+package com.vmware.vchs.api.samples.ondemand.details;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
+import com.vmware.vchs.api.samples.services.Compute;
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.cost.CostAttribution;
+import com.vmware.vchs.api.samples.services.cost.CostTotals;
+import com.vmware.vchs.api.samples.services.cost.FixedPointCost;
+import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.JsonCodec;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.vms.billabledata.v5.BillableUsageType;
+import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+
+/**
+ * This helper class will attribute the current billable usage of every compute instance
+ * accessible to the logged in user to its VDCs, vApps and VMs, and display the cost of each VDC
+ * and vApp.
+ */
+public class VdcCostReport {
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+
+    public static void main(String[] args) {
+        VdcCostReport instance = new VdcCostReport();
+        instance.go(args);
+    }
+
+    private void go(String[] args) {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        options = new SampleCommandLineOptions();
+
+        // process arguments
+        options.parseOptions(args);
+
+        // Log in to vCHS API, getting a session in response if login is successful
+        System.out.print("\nConnecting to vCHS...");
+        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+
+        if (null != authToken) {
+            System.out.println("Success\n");
+
+            // Retrieve service controller instances available for authenticated user
+            List<InstanceType> instances = ServiceController.getInstances(options.hostname,
+                    options.version, authToken);
+
+            if (null != instances && instances.size() > 0) {
+                for (InstanceType instance : instances) {
+                    if (instance.getName().equalsIgnoreCase("Virtual Private Cloud OnDemand")) {
+                        report(instance);
+                    }
+                }
+            }
+        }
+    }
+
+    private void report(InstanceType instance) {
+        // get the compute service api and org info
+        InstanceAttribute ia = JsonCodec.fromJson(instance.getInstanceAttributes(),
+                InstanceAttribute.class);
+
+        // Log in to compute API
+        System.out.print("Logging in to compute instance - region: " + instance.getRegion()
+                + "...");
+        String vcdToken = Compute.login(ia.getSessionUri(), options.username, options.password,
+                ia.getOrgName(), options.version);
+        if (null == vcdToken) {
+            System.out.println("Could not log in to compute with credentials\n");
+            return;
+        }
+
+        System.out.println("Success.\n");
+
+        OrgListType org = Compute.getOrgDetails(instance.getApiUrl(), vcdToken, options.version);
+        if (null == org) {
+            return;
+        }
+
+        // Index the compute inventory first, then join the usage entities against it
+        CostAttribution attribution = new CostAttribution();
+        Collection<VdcType> vdcs = Compute.getVDCsForOrgs(org, vcdToken, options.version);
+        if (null != vdcs) {
+            for (VdcType vdc : vdcs) {
+                attribution.indexVdc(vdc, Compute.getVAppsForVdc(vdc, vcdToken, options.version));
+            }
+        }
+
+        BillableUsageType usage = Metering.getBillableUsage(options.hostname, authToken,
+                options.version, instance.getId());
+        if (null != usage) {
+            attribution.attributeAll(usage.getEntity());
+        }
+
+        System.out.printf("%-10s %-50s %-50s %-20s %-10s\n", "Level", "Name", "VDC", "Cost",
+                "Currency");
+        System.out.printf("%-10s %-50s %-50s %-20s %-10s\n", "-----", "----", "---", "----",
+                "--------");
+
+        for (CostAttribution.Rollup vdc : attribution.getVdcRollups()) {
+            print("VDC", vdc.getName(), "", vdc.getTotals());
+        }
+
+        for (CostAttribution.Rollup vapp : attribution.getVAppRollups()) {
+            print("vApp", vapp.getName(), vapp.getParent().getName(), vapp.getTotals());
+        }
+
+        if (attribution.getUnattributedEntityCount() > 0) {
+            print("Other", attribution.getUnattributedEntityCount() + " unmatched entities", "",
+                    attribution.getUnattributed());
+        }
+
+        System.out.println();
+    }
+
+    private static void print(String level, String name, String vdcName, CostTotals totals) {
+        if (totals.size() == 0) {
+            System.out.printf("%-10s %-50s %-50s %-20s %-10s\n", level, name, vdcName, "0", "");
+        }
+
+        for (int i = 0; i < totals.size(); i++) {
+            System.out.printf("%-10s %-50s %-50s %-20s %-10s\n", level, name, vdcName,
+                    FixedPointCost.toString(totals.getTotal(i)), totals.getCurrency(i));
+        }
+    }
+}
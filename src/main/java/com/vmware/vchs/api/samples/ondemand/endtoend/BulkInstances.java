@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License.    You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,  WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.ConcurrencyLimiter;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.sc.BulkInstanceLifecycle;
+
+/**
+ * BulkInstances
+ *
+ * This sample will log in to OnDemand with the provided username and password, then create the
+ * service instances listed in the input file, or with --delete delete them, making the service
+ * controller calls concurrently. The outcome and latency of every call is displayed.
+ *
+ * Each line of the input file names one instance, blank lines and lines starting with # are
+ * ignored:
+ *
+ * planId,serviceGroupId,name[,description]   to create an instance
+ * instanceId                                 to delete an instance (with --delete)
+ *
+ * Parameters:
+ *
+ * hostname [required] : url of the vCHS onDeamn web service
+ * username [required] : username for the vCHS OnDemand authentication
+ * password [required] : password for the vCHS OnDemand authentication
+ * version  [required] : version of the vCHS OnDemand API
+ * input    [required] : the file listing the instances
+ * delete   [optional] : delete the listed instances instead of creating them
+ * inflight [optional] : the maximum number of concurrent service controller calls, defaults to 8
+ *
+ * Argument Line:
+ *
+ * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
+ * --version [vCHS API version] --input [instances file] --delete --inflight [max calls]
+ */
+public class BulkInstances {
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BulkInstances instance = new BulkInstances();
+        instance.go(args);
+    }
+
+    private void go(String[] args) throws IOException, InterruptedException {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        // process command line arguments
+        options = new SampleCommandLineOptions();
+        options.parseOptions(args);
+
+        if (null == options.input) {
+            System.out.println("--input is required.");
+            return;
+        }
+
+        List<String[]> lines = readLines();
+
+        // All calls share one pool of connections, sized to the number of concurrent calls
+        HttpUtils.enableConnectionPool(options.inflight);
+
+        // Start below --inflight and let the limit follow what each host can take
+        HttpUtils.setConcurrencyLimiter(new ConcurrencyLimiter(options.inflight));
+
+        try {
+            // Log in to vCHS API, getting a session in response if login is successful
+            System.out.print("\nConnecting to vCHS...");
+
+            authToken = IAM.login(options.hostname, options.username, options.password,
+                    options.version);
+
+            if (null == authToken) {
+                System.out.println("Failed.\n");
+                return;
+            }
+
+            System.out.println("Success\n");
+
+            BulkInstanceLifecycle lifecycle = new BulkInstanceLifecycle(options.hostname,
+                    options.version, authToken, options.inflight);
+
+            long start = System.currentTimeMillis();
+            List<BulkInstanceLifecycle.ItemResult> results;
+            if (options.delete) {
+                List<String> ids = new ArrayList<String>();
+                for (String[] fields : lines) {
+                    ids.add(fields[0]);
+                }
+
+                System.out.print("Deleting " + ids.size() + " instances...");
+                results = lifecycle.deleteInstances(ids);
+            } else {
+                List<BulkInstanceLifecycle.InstanceSpec> specs =
+                        new ArrayList<BulkInstanceLifecycle.InstanceSpec>();
+                for (String[] fields : lines) {
+                    if (fields.length < 3) {
+                        System.out.println("Skipping line without plan, service group and name: "
+                                + fields[0]);
+                        continue;
+                    }
+
+                    specs.add(new BulkInstanceLifecycle.InstanceSpec(fields[0], fields[1],
+                            fields[2], fields.length > 3 ? fields[3] : ""));
+                }
+
+                System.out.print("Creating " + specs.size() + " instances...");
+                results = lifecycle.createInstances(specs);
+            }
+
+            System.out.println("Done.\n");
+
+            int failed = 0;
+            System.out.printf("%-40s %-8s %-10s\n", "Instance", "Result", "Millis");
+            System.out.printf("%-40s %-8s %-10s\n", "--------", "------", "------");
+            for (BulkInstanceLifecycle.ItemResult result : results) {
+                if (!result.isSuccess()) {
+                    failed++;
+                }
+
+                System.out.printf("%-40s %-8s %-10d%s\n", result.getItem(),
+                        result.isSuccess() ? "ok" : "failed", result.getLatencyMillis(),
+                        null != result.getError() ? " " + result.getError() : "");
+            }
+
+            System.out.println("\n" + (results.size() - failed) + " succeeded, " + failed
+                    + " failed in " + (System.currentTimeMillis() - start) / 1000 + " seconds.\n");
+        } finally {
+            HttpUtils.setConcurrencyLimiter(null);
+            HttpUtils.disableConnectionPool();
+        }
+    }
+
+    private List<String[]> readLines() throws IOException {
+        List<String[]> lines = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                options.input), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split(",", 4);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+
+                lines.add(fields);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License.    You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,  WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.ConcurrencyLimiter;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.iam.BulkUserPipeline;
+
+/**
+ * BulkUsers
+ *
+ * This sample will log in to OnDemand with the provided username and password, then either import
+ * the users listed in the input file, creating users without an id and updating users with one, or
+ * export all users to the export file. Imports run with a bounded number of concurrent calls over
+ * pooled connections, and the result of every row is written to the output file as it completes.
+ *
+ * Parameters:
+ *
+ * hostname [required] : url of the vCHS onDeamn web service
+ * username [required] : username for the vCHS OnDemand authentication
+ * password [required] : password for the vCHS OnDemand authentication
+ * version  [required] : version of the vCHS OnDemand API
+ * input    [optional] : the CSV or JSON file of users to import
+ * output   [optional] : the CSV file to write the import results to, defaults to the input file
+ *                       name followed by .results.csv
+ * export   [optional] : the CSV or JSON file to export all users to
+ * inflight [optional] : the maximum number of concurrent IAM calls, defaults to 8
+ * rate     [optional] : the maximum number of IAM calls started per second, defaults to 10
+ *
+ * Argument Line:
+ *
+ * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
+ * --version [vCHS API version] --input [users file] --output [results file]
+ * --export [users file] --inflight [max calls] --rate [calls per second]
+ */
+public class BulkUsers {
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BulkUsers instance = new BulkUsers();
+        instance.go(args);
+    }
+
+    private void go(String[] args) throws IOException, InterruptedException {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        // process command line arguments
+        options = new SampleCommandLineOptions();
+        options.parseOptions(args);
+
+        if (null == options.input && null == options.export) {
+            System.out.println("One of --input or --export is required.");
+            return;
+        }
+
+        // All calls share one pool of connections, sized to the number of concurrent calls
+        HttpUtils.enableConnectionPool(options.inflight);
+
+        // Start below --inflight and let the limit follow what each host can take
+        HttpUtils.setConcurrencyLimiter(new ConcurrencyLimiter(options.inflight));
+
+        try {
+            // Log in to vCHS API, getting a session in response if login is successful
+            System.out.print("\nConnecting to vCHS...");
+
+            authToken = IAM.login(options.hostname, options.username, options.password,
+                    options.version);
+
+            if (null == authToken) {
+                System.out.println("Failed.\n");
+                return;
+            }
+
+            System.out.println("Success\n");
+
+            BulkUserPipeline pipeline = new BulkUserPipeline(options.hostname, authToken,
+                    options.version, options.inflight, options.rate);
+
+            if (null != options.input) {
+                File results = new File(null != options.output ? options.output : options.input
+                        + ".results.csv");
+
+                System.out.print("Importing users from " + options.input + "...");
+                long start = System.currentTimeMillis();
+                BulkUserPipeline.Summary summary = pipeline.importUsers(new File(options.input),
+                        results);
+                System.out.println("Done.\n");
+
+                System.out.printf("%-10s %-10s %-10s %-10s\n", "Created", "Updated", "Failed",
+                        "Seconds");
+                System.out.printf("%-10s %-10s %-10s %-10s\n", "-------", "-------", "------",
+                        "-------");
+                System.out.printf("%-10d %-10d %-10d %-10d\n\n", summary.getCreated(),
+                        summary.getUpdated(), summary.getFailed(),
+                        (System.currentTimeMillis() - start) / 1000);
+                System.out.println("Results written to " + results + "\n");
+            }
+
+            if (null != options.export) {
+                System.out.print("Exporting users to " + options.export + "...");
+                int count = pipeline.exportUsers(new File(options.export));
+                if (count >= 0) {
+                    System.out.println("Done, " + count + " users exported.\n");
+                } else {
+                    System.out.println("Failed.\n");
+                }
+            }
+        } finally {
+            HttpUtils.setConcurrencyLimiter(null);
+            HttpUtils.disableConnectionPool();
+        }
+    }
+}
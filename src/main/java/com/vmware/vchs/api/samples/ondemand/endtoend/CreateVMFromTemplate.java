@@ -14,14 +14,16 @@
  */
 package com.vmware.vchs.api.samples.ondemand.endtoend;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.List;
 
-import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.services.Compute;
 import com.vmware.vchs.api.samples.services.IAM;
-import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.Tracer;
+import com.vmware.vchs.api.samples.services.sc.InstanceRegistry;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
 import com.vmware.vcloud.api.rest.schema_v1_5.VAppTemplateType;
@@ -42,17 +44,20 @@ import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
  * region [required]          : vCHS region the VDC should be created in
  * vdcname [required]         : the name of the VDC where the VM will be created to
  * vmtemplatename [required] : the name of the VDC VM template to use for creating the VM from
+ * trace [optional]           : the file to write a timeline of the workflow steps and API calls
+ *                              to, open it in chrome://tracing or Perfetto
  *  
  * Argument Line:
  * 
  * --hostname [vCHS webservice url] --username [vCHS
  * username] --password [vCHS password] --version [vCHS API version] --region [vCHS region]
- * --vdctempltaename [Compute Service VDC template name]
+ * --vdctempltaename [Compute Service VDC template name] --trace [trace file]
  */
 public class CreateVMFromTemplate {
     private SampleCommandLineOptions options = null;
     private String authToken = null;
     private VAppTemplateType matchedTemplate = null;
+    private Tracer tracer = Tracer.NONE;
 
     public static void main(String[] args) {
         CreateVMFromTemplate instance = new CreateVMFromTemplate();
@@ -68,54 +73,109 @@ public class CreateVMFromTemplate {
         options = new SampleCommandLineOptions();
         options.parseOptions(args);
 
+        // Trace every workflow step and the API calls made in it
+        if (null != options.trace) {
+            tracer = new Tracer();
+            HttpUtils.setTracer(tracer);
+        }
+
+        // The trace is written even if a step fails, that is when it is needed most
+        Tracer.Span workflow = tracer.start("CreateVMFromTemplate", "workflow");
+        try {
+            run();
+        } catch (RuntimeException e) {
+            workflow.set("error", e.toString());
+            throw e;
+        } finally {
+            workflow.end();
+            HttpUtils.setTracer(null);
+            writeTrace();
+        }
+    }
+
+    private void writeTrace() {
+        if (null != options.trace) {
+            try {
+                tracer.write(new File(options.trace));
+                System.out.println("Trace of " + tracer.getSpanCount() + " spans written to "
+                        + options.trace);
+            } catch (IOException e) {
+                System.out.println("Could not write trace to " + options.trace + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
-        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+        Tracer.Span step = tracer.start("IAM login", "workflow");
+        try {
+            authToken = IAM.login(options.hostname, options.username, options.password,
+                    options.version);
+        } finally {
+            step.end();
+        }
 
         if (null != authToken) {
             System.out.println("Success\n");
 
-            // Retrieve service controller instances available for authenticated user
-            List<InstanceType> instances = ServiceController.getInstances(options.hostname,
-                    options.version, authToken);
+            // Load the service controller instances available for authenticated user, indexed
+            // by region
+            InstanceRegistry registry = new InstanceRegistry(options.hostname, options.version,
+                    authToken);
             InstanceType computeInstance = null;
-            if (null != instances && instances.size() > 0) {
-                System.out
-                        .print("Searching for matching instance region " + options.region + "...");
+            step = tracer.start("instance lookup", "workflow").set("region", options.region);
+            try {
+                if (registry.refresh()) {
+                    System.out.print("Searching for matching instance region " + options.region
+                            + "...");
 
-                for (InstanceType instance : instances) {
-                    if (instance.getRegion().toLowerCase().equalsIgnoreCase(options.region)) {
-                        computeInstance = instance;
+                    computeInstance = registry.getFirstByRegion(options.region);
+                    if (null != computeInstance) {
                         System.out.println("Success.\n");
-                        break;
                     }
                 }
+            } finally {
+                step.end();
             }
 
             if (null != computeInstance) {
-                Gson gson = new Gson();
-                InstanceAttribute ia = gson.fromJson(computeInstance.getInstanceAttributes(),
-                        InstanceAttribute.class);
+                InstanceAttribute ia = registry.getAttribute(computeInstance);
 
                 // Log in to compute API
                 System.out.print("Logging in to compute...");
 
-                String vcdToken = Compute.login(ia.getSessionUri(), options.username,
-                        options.password, ia.getOrgName(), options.version);
+                String vcdToken;
+                step = tracer.start("compute login", "workflow");
+                try {
+                    vcdToken = Compute.login(ia.getSessionUri(), options.username,
+                            options.password, ia.getOrgName(), options.version);
+                } finally {
+                    step.end();
+                }
 
                 if (null != vcdToken) {
                     System.out.println("Success.\n");
 
-                    // Retrieve the Org details for the logged in credentials
-                    OrgListType org = Compute.getOrgDetails(computeInstance.getApiUrl(), vcdToken,
-                            options.version);
+                    OrgListType org;
+                    Collection<VdcType> vdcs = null;
+                    step = tracer.start("org and VDC discovery", "workflow");
+                    try {
+                        // Retrieve the Org details for the logged in credentials
+                        org = Compute.getOrgDetails(computeInstance.getApiUrl(), vcdToken,
+                                options.version);
 
-                    if (null != org) {
                         // Retrieve any accessible VDCs for this Org.
-                        Collection<VdcType> vdcs = Compute.getVDCsForOrgs(org, vcdToken,
-                                options.version);
+                        if (null != org) {
+                            vdcs = Compute.getVDCsForOrgs(org, vcdToken, options.version);
+                        }
+                    } finally {
+                        step.end();
+                    }
 
+                    if (null != org) {
                         if (null != vdcs && vdcs.size() > 0) {
                             for (VdcType vdc : vdcs) {
                                 // search for VDC that matches one we're looking for.
@@ -126,32 +186,55 @@ public class CreateVMFromTemplate {
                                     System.out.println("Found.\n");
 
                                     // First we need to pull a template
-                                    Collection<VAppTemplateType> templates = Compute
-                                            .getTemplatesForVdc(computeInstance.getApiUrl(), vdc,
-                                                    options.version, vcdToken);
+                                    Collection<VAppTemplateType> templates;
+                                    step = tracer.start("template search", "workflow").set("vdc",
+                                            vdc.getName());
+                                    try {
+                                        templates = Compute.getTemplatesForVdc(
+                                                computeInstance.getApiUrl(), vdc,
+                                                options.version, vcdToken);
 
-                                    System.out.print("Searching for VDC template with name " + options.vdctemplatename);
-                                    if (null != templates && templates.size() > 0) {
-                                        for (VAppTemplateType template : templates) {
-                                            if (template.getName().toLowerCase()
-                                                    .equalsIgnoreCase(options.vmtemplatename)) {
-                                                matchedTemplate = template;
+                                        System.out.print("Searching for VDC template with name "
+                                                + options.vdctemplatename);
+                                        if (null != templates && templates.size() > 0) {
+                                            for (VAppTemplateType template : templates) {
+                                                if (template.getName().toLowerCase()
+                                                        .equalsIgnoreCase(options.vmtemplatename)) {
+                                                    matchedTemplate = template;
+                                                }
                                             }
                                         }
+                                    } finally {
+                                        step.end();
+                                    }
 
+                                    if (null != templates && templates.size() > 0) {
                                         // If we found a matching template proceed
                                         if (null != matchedTemplate) {
                                             System.out.println("Found.\n");
                                             // Check the available networks for the matched VDC
-                                            VAppType vapp = Compute.createVmFromTemplate(vdc,
-                                                    matchedTemplate, options.vmname,
-                                                    options.version, vcdToken);
+                                            VAppType vapp;
+                                            step = tracer.start("instantiation", "workflow")
+                                                    .set("template", matchedTemplate.getName());
+                                            try {
+                                                vapp = Compute.createVmFromTemplate(vdc,
+                                                        matchedTemplate, options.vmname,
+                                                        options.version, vcdToken);
+                                            } finally {
+                                                step.end();
+                                            }
                                             if (null != vapp) {
                                                 // VApp is created, now we'll wait for it's TaskType
                                                 // status to be completed
                                                 System.out.print("Waiting for VM creation to complete...");
-                                                Compute.waitForTasks(vapp.getTasks(),
-                                                        options.version, vcdToken);
+                                                step = tracer.start("task waiting",
+                                                        "workflow");
+                                                try {
+                                                    Compute.waitForTasks(vapp.getTasks(),
+                                                            options.version, vcdToken);
+                                                } finally {
+                                                    step.end();
+                                                }
                                                 System.out.println("Completed.\n");
 
                                                 System.out.print("Deploying VM...");
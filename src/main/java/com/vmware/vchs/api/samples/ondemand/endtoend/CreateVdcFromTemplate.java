@@ -14,13 +14,10 @@
  */
 package com.vmware.vchs.api.samples.ondemand.endtoend;
 
-import java.util.List;
-
-import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.services.Compute;
 import com.vmware.vchs.api.samples.services.IAM;
-import com.vmware.vchs.api.samples.services.ServiceController;
 import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.sc.InstanceRegistry;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vcloud.api.rest.schema_v1_5.LinkType;
 import com.vmware.vcloud.api.rest.schema_v1_5.OrgListType;
@@ -72,93 +69,90 @@ public class CreateVdcFromTemplate {
 
         System.out.println("Success\n");
 
-        // Get a list of any instances already created for the logged in user
-        List<InstanceType> instances = ServiceController.getInstances(options.hostname,
-                options.version, authToken);
+        // Load any instances already created for the logged in user, indexed by region
+        InstanceRegistry registry = new InstanceRegistry(options.hostname, options.version,
+                authToken);
+        registry.refresh();
 
-        // Loop through all available instances; match the instance region to the command line
-        // options.region
+        // Look up the instance in the region matching the command line options.region
         System.out.print("Looking for an instance with a matching region to " + options.region
                 + "...");
-        for (InstanceType instance : instances) {
-            if (instance.getRegion().equalsIgnoreCase(options.region)) {
-                System.out.println("Found.\n");
-
-                // Use Gson to convert the JSON String into an instance of InstanceAttribute
-                Gson gson = new Gson();
-                InstanceAttribute ia = gson.fromJson(instance.getInstanceAttributes(),
-                        InstanceAttribute.class);
-
-                // Log in to compute retrieving the auth token in response to be used
-                // in subsequent requests to compute.
-                System.out.print("Logging in to compute service...");
-                String computeAuthToken = Compute.login(ia.getSessionUri(), options.username,
-                        options.password, ia.getOrgName(), options.version);
-                if (null != computeAuthToken) {
+        InstanceType instance = registry.getFirstByRegion(options.region);
+        if (null != instance) {
+            System.out.println("Found.\n");
+
+            // The registry converts the JSON String into an instance of InstanceAttribute
+            InstanceAttribute ia = registry.getAttribute(instance);
+
+            // Log in to compute retrieving the auth token in response to be used
+            // in subsequent requests to compute.
+            System.out.print("Logging in to compute service...");
+            String computeAuthToken = Compute.login(ia.getSessionUri(), options.username,
+                    options.password, ia.getOrgName(), options.version);
+            if (null != computeAuthToken) {
+                System.out.println("Success.\n");
+
+                // Retrieve the org details using the service provided API url
+                System.out.print("Retrieving the Org details...");
+                OrgListType org = Compute.getOrgDetails(instance.getApiUrl(), computeAuthToken,
+                        options.version);
+                if (null != org) {
                     System.out.println("Success.\n");
 
-                    // Retrieve the org details using the service provided API url
-                    System.out.print("Retrieving the Org details...");
-                    OrgListType org = Compute.getOrgDetails(instance.getApiUrl(), computeAuthToken,
-                            options.version);
-                    if (null != org) {
-                        System.out.println("Success.\n");
-
-                        String vdcTemplateHref = null;
-                        String vdcTemplateInstantiateHref = null;
-
-                        // Loop through the Org links looking for the
-                        // application/vnd.vmware.vcloud.instantiateVdcTemplateParams+xml
-                        // and the application/vnd.vmware.admin.vdcTemplates+xml link types. Save
-                        // both HREF's.
-                        for (LinkType link : org.getLink()) {
-
-                            if (link.getType().equalsIgnoreCase(
-                                    "application/vnd.vmware.admin.vdcTemplates+xml")) {
-                                vdcTemplateHref = link.getHref();
-                            } else if (link
-                                    .getType()
-                                    .equalsIgnoreCase(
-                                            "application/vnd.vmware.vcloud.instantiateVdcTemplateParams+xml")) {
-                                vdcTemplateInstantiateHref = link.getHref();
-                            }
+                    String vdcTemplateHref = null;
+                    String vdcTemplateInstantiateHref = null;
+
+                    // Loop through the Org links looking for the
+                    // application/vnd.vmware.vcloud.instantiateVdcTemplateParams+xml
+                    // and the application/vnd.vmware.admin.vdcTemplates+xml link types. Save
+                    // both HREF's.
+                    for (LinkType link : org.getLink()) {
+
+                        if (link.getType().equalsIgnoreCase(
+                                "application/vnd.vmware.admin.vdcTemplates+xml")) {
+                            vdcTemplateHref = link.getHref();
+                        } else if (link
+                                .getType()
+                                .equalsIgnoreCase(
+                                        "application/vnd.vmware.vcloud.instantiateVdcTemplateParams+xml")) {
+                            vdcTemplateInstantiateHref = link.getHref();
                         }
+                    }
 
-                        // If both link types were found, we can get the collection of
-                        // VDC templates, find the matching template name, then create a new
-                        // VDC from the template.
-                        if (null != vdcTemplateHref && null != vdcTemplateInstantiateHref) {
-
-                            // Attempt to find a matching VDC template with a name matching
-                            // that of the provided options.vdctemplatename.
-                            System.out.print("Looking for a matching VDC template with name "
-                                    + options.vdctemplatename + "...");
-                            ReferenceType vdcTemplateRef = Compute.findVdcTemplateByName(
-                                    vdcTemplateHref, options.vdctemplatename, computeAuthToken,
-                                    options.version);
-
-                            if (null != vdcTemplateRef) {
-                                System.out.println("Found.\n");
-                                TaskType task = Compute.createVdcFromVdcTemplate(vdcTemplateRef,
-                                        vdcTemplateInstantiateHref, computeAuthToken,
-                                        options.version, "NewVDCName", "New VDC Description");
-
-                                if (null != task) {
-                                    System.out.print("Waiting for VDC creation to complete...");
-                                    Compute.waitForTaskCompletion(task,  options.version,  computeAuthToken,  10);
-                                    System.out.println("Created.\n");
-                                }
-                            } else {
-                                System.out.println("Not found.\n");
+                    // If both link types were found, we can get the collection of
+                    // VDC templates, find the matching template name, then create a new
+                    // VDC from the template.
+                    if (null != vdcTemplateHref && null != vdcTemplateInstantiateHref) {
+
+                        // Attempt to find a matching VDC template with a name matching
+                        // that of the provided options.vdctemplatename.
+                        System.out.print("Looking for a matching VDC template with name "
+                                + options.vdctemplatename + "...");
+                        ReferenceType vdcTemplateRef = Compute.findVdcTemplateByName(
+                                vdcTemplateHref, options.vdctemplatename, computeAuthToken,
+                                options.version);
+
+                        if (null != vdcTemplateRef) {
+                            System.out.println("Found.\n");
+                            TaskType task = Compute.createVdcFromVdcTemplate(vdcTemplateRef,
+                                    vdcTemplateInstantiateHref, computeAuthToken,
+                                    options.version, "NewVDCName", "New VDC Description");
+
+                            if (null != task) {
+                                System.out.print("Waiting for VDC creation to complete...");
+                                Compute.waitForTaskCompletion(task,  options.version,  computeAuthToken,  10);
+                                System.out.println("Created.\n");
                             }
+                        } else {
+                            System.out.println("Not found.\n");
                         }
                     }
-                } else {
-                    System.out.println("Failed.\n");
                 }
             } else {
                 System.out.println("Failed.\n");
             }
+        } else {
+            System.out.println("Failed.\n");
         }
     }
 }
\ No newline at end of file
@@ -14,10 +14,12 @@
  */
 package com.vmware.vchs.api.samples.ondemand.endtoend;
 
+import java.io.File;
 import java.util.List;
 
 import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.sc.PlanCatalog;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vchs.sc.service.v1.PlanType;
 
@@ -29,16 +31,20 @@ import com.vmware.vchs.sc.service.v1.PlanType;
  * It will then make another request to the ServiceController API to get any instances the logged 
  * in user has access to and display them. It will use the default command line options
  * 
+ * If a cache directory is provided the plans are displayed from the catalog persisted there by
+ * the previous run, and the catalog is revalidated against the ServiceController API afterwards.
+ * 
  * Parameters:
  * hostname [required] : url of the vCHS onDeamn web service
  * username [required] : username for the vCHS OnDemand authentication
  * password [required] : password for the vCHS OnDemand authentication
  * version  [required] : version of the vCHS OnDemand API
+ * cachedir [optional] : the directory to persist the plan catalog in
  * 
  * Argument Line:
  * 
  * --hostname [vCHS API url] --username [vCHS username] --password [vCHS password] --version 
- * [vCHS API version]
+ * [vCHS API version] --cachedir [cache directory]
  */
 public class ListPlansAndInstances {
     private SampleCommandLineOptions options = null;
@@ -67,8 +73,20 @@ public class ListPlansAndInstances {
 
         // Retrieve the collection of compute services which can be of type dedicated cloud or vpc
         // and has VDC in it.
-        List<PlanType> plans = ServiceController.getPlans(options.hostname, options.version,
-                authToken);
+        PlanCatalog catalog = null;
+        List<PlanType> plans;
+        if (null != options.cachedir) {
+            catalog = new PlanCatalog(options.hostname, options.version, authToken, new File(
+                    options.cachedir, "plans.xml.gz"));
+            if (catalog.isEmpty()) {
+                catalog.refresh();
+            }
+
+            plans = catalog.getAll();
+        } else {
+            plans = ServiceController.getPlans(options.hostname, options.version, authToken);
+        }
+
         if (null != plans && plans.size() > 0) {
             System.out.println("PLANS");
             System.out.println("-----");
@@ -111,5 +129,10 @@ public class ListPlansAndInstances {
         }
 
         System.out.println("\n\n");
+
+        if (null != catalog && 0 == catalog.getLastRefreshMillis()) {
+            // The plans were served from the persisted catalog, revalidate it for the next run
+            catalog.refresh();
+        }
     }
 }
\ No newline at end of file
@@ -19,6 +19,9 @@ import java.util.List;
 import com.vmware.vchs.api.samples.services.Billing;
 import com.vmware.vchs.api.samples.services.IAM;
 import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.api.samples.services.cost.CostTotals;
+import com.vmware.vchs.api.samples.services.cost.FixedPointCost;
+import com.vmware.vchs.api.samples.services.helper.RecordReplayTransport;
 import com.vmware.vchs.vms.billabledata.v5.BillableListType;
 import com.vmware.vchs.vms.billabledata.v5.BillableType;
 import com.vmware.vchs.vms.billabledata.v5.BillableUsageType;
@@ -42,12 +45,15 @@ import com.vmware.vchs.vms.billabledata.v5.EntityType;
  * vmid              [required] : the VM id to retrieve billing and metering for
  * serviceGroupId    [required] : the service group id to retrieve billing and metering for
  * serviceInstanceId [required] : the service instance id to retrieve billing and metering for
+ * record            [optional] : the file to record the API calls to, with secrets redacted
+ * replay            [optional] : the recorded file to answer the API calls from, offline
+ * speed             [optional] : how many times faster than recorded to replay, 0 for no delay
  * 
  * Argument Line:
  * 
  * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
  * --version [vCHS API version] --vdcid [VDC id] --vmid [VM id] --servicegroupdid [service group id]
- * --serviceinstanceid [service instance id]
+ * --serviceinstanceid [service instance id] --record [file] --replay [file] --speed [factor]
  */
 public class MeteringAndBilling {
     private SampleCommandLineOptions options = null;
@@ -67,6 +73,16 @@ public class MeteringAndBilling {
         options = new SampleCommandLineOptions();
         options.parseOptions(args);
 
+        // Record the calls of the run, or answer them from a recording, as the options ask
+        RecordReplayTransport traffic = RecordedTraffic.begin(options);
+        try {
+            run();
+        } finally {
+            RecordedTraffic.end(options, traffic);
+        }
+    }
+
+    private void run() {
         // Log in to vCHS API, getting a session in response if login is successful
         System.out.print("\nConnecting to vCHS...");
 
@@ -83,13 +99,20 @@ public class MeteringAndBilling {
                 System.out.printf("%-38s %-30s %-20s %-20s %-20s\n", "Name", "Amount", "Currency", "Rate", "Unit");
                 System.out.printf("%-38s %-30s %-20s %-20s %-20s\n", "----", "----", "--------", "----", "----");
 
+                CostTotals totals = new CostTotals();
                 for (EntityType entity : entities) {
                     BillableListType blt = entity.getBillableList();
                     List<BillableType> bills = blt.getBillable();
                     for(BillableType bill : bills) {
                         System.out.printf("%-38s %-30s %-20s %-20s %-20s\n", bill.getName(), bill.getCost(), bill.getCurrency(), bill.getRate(), bill.getUnit());
+                        totals.add(bill);
                     }
                 }
+
+                // Display the total billed cost for each currency
+                for (int i = 0; i < totals.size(); i++) {
+                    System.out.printf("%-38s %-30s %-20s\n", "Total", FixedPointCost.toString(totals.getTotal(i)), totals.getCurrency(i));
+                }
             }
         }
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License.    You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,  WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.cost.CostRollupCube;
+import com.vmware.vchs.api.samples.services.cost.CostTotals;
+import com.vmware.vchs.api.samples.services.cost.FixedPointCost;
+import com.vmware.vchs.api.samples.services.cost.MeteringCollector;
+import com.vmware.vchs.api.samples.services.helper.CircuitBreaker;
+import com.vmware.vchs.api.samples.services.helper.HedgePolicy;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.vms.billabledata.v5.BillableUsageType;
+
+/**
+ * MeteringCollectorDaemon
+ *
+ * This sample will log in to OnDemand with the provided username and password, then keep polling
+ * the metering API for the targets listed in the targets file until it is stopped. Every sample is
+ * applied to a CostRollupCube and the current cost per scope and region is displayed once a
+ * minute. The instance, L1 and L2 scopes are shown apart, an L1 or L2 target reports part of the
+ * usage of its service instance. If no targets file is provided every service instance accessible
+ * to the logged in user is polled. Targets of a service instance that is not accessible to the
+ * logged in user are reported and skipped, as their region and service group are not known.
+ * Calls to an endpoint that keeps failing are failed fast by a CircuitBreaker until it recovers,
+ * and the circuits that are not closed are displayed with the costs. Metering reads slower than
+ * the usual latency of their endpoint are hedged with a second request.
+ *
+ * Each line of the targets file names one target, blank lines and lines starting with # are
+ * ignored:
+ *
+ * serviceInstanceId[,instance|l1|l2[,l1 or l2 id[,interval in seconds]]]
+ *
+ * Parameters:
+ *
+ * hostname [required] : url of the vCHS onDeamn web service
+ * username [required] : username for the vCHS OnDemand authentication
+ * password [required] : password for the vCHS OnDemand authentication
+ * version  [required] : version of the vCHS OnDemand API
+ * targets  [optional] : the file listing the targets to poll
+ * inflight [optional] : the maximum number of concurrent metering calls, defaults to 8
+ * interval [optional] : the default number of seconds between two polls of a target, defaults
+ *                       to 900
+ *
+ * Argument Line:
+ *
+ * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
+ * --version [vCHS API version] --targets [targets file] --inflight [max calls]
+ * --interval [seconds]
+ */
+public class MeteringCollectorDaemon {
+    // Log in again before the OAUTH token expires
+    private static final long LOGIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+    private final Map<String, InstanceType> instances = new HashMap<String, InstanceType>();
+    private final CostRollupCube cube = new CostRollupCube();
+
+    public static void main(String[] args) throws InterruptedException {
+        MeteringCollectorDaemon instance = new MeteringCollectorDaemon();
+        instance.go(args);
+    }
+
+    private void go(String[] args) throws InterruptedException {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        // process command line arguments
+        options = new SampleCommandLineOptions();
+        options.parseOptions(args);
+
+        if (options.interval <= 0) {
+            System.out.println("The interval must be a positive number of seconds.");
+            return;
+        }
+
+        // Log in to vCHS API, getting a session in response if login is successful
+        System.out.print("\nConnecting to vCHS...");
+
+        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+
+        if (null == authToken) {
+            System.out.println("Failed.\n");
+            return;
+        }
+
+        System.out.println("Success\n");
+
+        // The instances provide the region and service group dimensions of the cube
+        List<InstanceType> all = ServiceController.getInstances(options.hostname,
+                options.version, authToken);
+        if (null != all) {
+            for (InstanceType instance : all) {
+                instances.put(instance.getId(), instance);
+            }
+        }
+
+        MeteringCollector collector = new MeteringCollector(options.hostname, authToken,
+                options.version, options.inflight, new MeteringCollector.Listener() {
+                    public void onSample(MeteringCollector.Target target, BillableUsageType usage,
+                            long elapsedMillis) {
+                        InstanceType instance = instances.get(target.getServiceInstanceId());
+                        if (null != instance) {
+                            cube.update(instance,
+                                    CostRollupCube.Scope.valueOf(target.getLevel().name()),
+                                    target.getLevelId(), usage.getEntity());
+                        }
+                    }
+
+                    public void onFailure(MeteringCollector.Target target, Throwable cause) {
+                        System.out.println("Poll of " + target + " failed"
+                                + (null != cause ? ": " + cause.getMessage() : ""));
+                    }
+                });
+
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setListener(new CircuitBreaker.Listener() {
+            public void onStateChange(String key, CircuitBreaker.State from,
+                    CircuitBreaker.State to) {
+                System.out.println("Circuit " + key + " is now " + to);
+            }
+        });
+        HttpUtils.setCircuitBreaker(breaker);
+
+        HedgePolicy hedging = new HedgePolicy();
+        HttpUtils.setHedgePolicy(hedging);
+
+        // Targets listed more than once and polled at the same moment share one call
+        HttpUtils.enableRequestCoalescing();
+
+        long defaultInterval = TimeUnit.SECONDS.toMillis(options.interval);
+        if (null != options.targets) {
+            try {
+                readTargets(collector, defaultInterval);
+            } catch (IOException e) {
+                System.out.println("Could not read targets file " + options.targets + ": "
+                        + e.getMessage());
+                return;
+            }
+        } else {
+            for (String id : instances.keySet()) {
+                collector.addTarget(new MeteringCollector.Target(id,
+                        MeteringCollector.Level.INSTANCE, null, defaultInterval));
+            }
+        }
+
+        System.out.println("Collecting metering for " + collector.getTargets().size()
+                + " targets with at most " + options.inflight + " concurrent calls.\n");
+        collector.start();
+
+        long lastLogin = System.currentTimeMillis();
+        while (true) {
+            TimeUnit.MINUTES.sleep(1);
+
+            if (System.currentTimeMillis() - lastLogin > LOGIN_INTERVAL_MILLIS) {
+                String token = IAM.login(options.hostname, options.username, options.password,
+                        options.version);
+                if (null != token) {
+                    collector.setAuthToken(token);
+                    lastLogin = System.currentTimeMillis();
+                }
+            }
+
+            printSummary(collector, breaker, hedging);
+        }
+    }
+
+    private void readTargets(MeteringCollector collector, long defaultInterval)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                options.targets), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                MeteringCollector.Level level = MeteringCollector.Level.INSTANCE;
+                if (fields.length > 1 && fields[1].trim().length() > 0) {
+                    try {
+                        level = MeteringCollector.Level.valueOf(fields[1].trim().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Skipping target " + line + ", the level must be"
+                                + " instance, l1 or l2.");
+                        continue;
+                    }
+                }
+
+                String levelId = fields.length > 2 && fields[2].trim().length() > 0 ? fields[2]
+                        .trim() : null;
+                if (level != MeteringCollector.Level.INSTANCE && null == levelId) {
+                    System.out.println("Skipping target " + line + ", an " + level
+                            + " target needs an " + level + " id.");
+                    continue;
+                }
+
+                long interval = defaultInterval;
+                if (fields.length > 3 && fields[3].trim().length() > 0) {
+                    try {
+                        interval = TimeUnit.SECONDS.toMillis(Long.parseLong(fields[3].trim()));
+                    } catch (NumberFormatException e) {
+                        interval = 0;
+                    }
+
+                    if (interval <= 0) {
+                        System.out.println("Skipping target " + line + ", the interval must be a"
+                                + " positive number of seconds.");
+                        continue;
+                    }
+                }
+
+                String serviceInstanceId = fields[0].trim();
+                if (!instances.containsKey(serviceInstanceId)) {
+                    System.out.println("Skipping target " + line + ", service instance "
+                            + serviceInstanceId + " is not known.");
+                    continue;
+                }
+
+                collector.addTarget(new MeteringCollector.Target(serviceInstanceId, level,
+                        levelId, interval));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void printSummary(MeteringCollector collector, CircuitBreaker breaker,
+            HedgePolicy hedging) {
+        System.out.printf("%-10s %-30s %-20s %-10s   (%d calls in flight)\n", "Scope", "Region",
+                "Cost", "Currency", collector.getInFlight());
+        System.out.printf("%-10s %-30s %-20s %-10s\n", "-----", "------", "----", "--------");
+
+        // The scopes overlap, so each is totalled on its own
+        for (CostRollupCube.Scope scope : CostRollupCube.Scope.values()) {
+            Map<String, CostRollupCube.Aggregate> regions = cube.groupBy(
+                    CostRollupCube.Dimension.REGION, CostRollupCube.Key.of(scope, null, null,
+                            null, null, null));
+            for (Map.Entry<String, CostRollupCube.Aggregate> region : regions.entrySet()) {
+                CostTotals cost = region.getValue().getCost();
+                for (int i = 0; i < cost.size(); i++) {
+                    System.out.printf("%-10s %-30s %-20s %-10s\n", scope, region.getKey(),
+                            FixedPointCost.toString(cost.getTotal(i)), cost.getCurrency(i));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println(hedging.getHedged() + " slow calls hedged, " + hedging.getHedgeWins()
+                + " hedges answered first.");
+
+        for (CircuitBreaker.Stats stats : breaker.getStats()) {
+            if (stats.getState() != CircuitBreaker.State.CLOSED) {
+                System.out.println(stats);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License.    You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,  WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.ConcurrencyLimiter;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.iam.UserReconciler;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * ReconcileUsers
+ *
+ * This sample will log in to OnDemand with the provided username and password, read the desired
+ * users from the input file and make only the create, update and (with --prune) delete calls
+ * needed for the IAM users to match them. Users are matched on userName. With --dryrun the
+ * changes are only listed.
+ *
+ * Parameters:
+ *
+ * hostname [required] : url of the vCHS onDeamn web service
+ * username [required] : username for the vCHS OnDemand authentication
+ * password [required] : password for the vCHS OnDemand authentication
+ * version  [required] : version of the vCHS OnDemand API
+ * input    [required] : the CSV or JSON file of desired users
+ * prune    [optional] : delete existing users that are not in the input file
+ * dryrun   [optional] : list the changes without making them
+ * inflight [optional] : the maximum number of concurrent IAM calls, defaults to 8
+ *
+ * Argument Line:
+ *
+ * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
+ * --version [vCHS API version] --input [users file] --prune --dryrun --inflight [max calls]
+ */
+public class ReconcileUsers {
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ReconcileUsers instance = new ReconcileUsers();
+        instance.go(args);
+    }
+
+    private void go(String[] args) throws IOException, InterruptedException {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        // process command line arguments
+        options = new SampleCommandLineOptions();
+        options.parseOptions(args);
+
+        if (null == options.input) {
+            System.out.println("--input is required.");
+            return;
+        }
+
+        List<User> desired = UserReconciler.readUsers(new File(options.input));
+
+        HttpUtils.enableConnectionPool(options.inflight);
+
+        // Start below --inflight and let the limit follow what each host can take
+        HttpUtils.setConcurrencyLimiter(new ConcurrencyLimiter(options.inflight));
+
+        try {
+            // Log in to vCHS API, getting a session in response if login is successful
+            System.out.print("\nConnecting to vCHS...");
+
+            authToken = IAM.login(options.hostname, options.username, options.password,
+                    options.version);
+
+            if (null == authToken) {
+                System.out.println("Failed.\n");
+                return;
+            }
+
+            System.out.println("Success\n");
+
+            UserReconciler reconciler = new UserReconciler(options.hostname, authToken,
+                    options.version, options.inflight, options.prune);
+
+            System.out.print("Comparing " + desired.size() + " desired users...");
+            UserReconciler.Plan plan;
+            try {
+                plan = reconciler.plan(desired);
+            } catch (IllegalArgumentException e) {
+                // A desired user without a userName, or two with the same one
+                System.out.println("Failed: " + e.getMessage() + "\n");
+                return;
+            }
+
+            if (null == plan) {
+                System.out.println("Failed.\n");
+                return;
+            }
+
+            System.out.println("Done.\n");
+
+            System.out.printf("%-8s %-38s %-40s\n", "Action", "Id", "Username");
+            System.out.printf("%-8s %-38s %-40s\n", "------", "--", "--------");
+            print("create", plan.getCreates());
+            print("update", plan.getUpdates());
+            print("delete", plan.getDeletes());
+            System.out.println("\n" + plan.getUnchanged() + " users are unchanged.\n");
+
+            if (options.dryrun || plan.isEmpty()) {
+                return;
+            }
+
+            System.out.print("Applying changes...");
+            UserReconciler.Result result = reconciler.apply(plan);
+            if (result.getFailed() == 0) {
+                System.out.println("Success.\n");
+            } else {
+                System.out.println("Failed: " + result.getFailedCreates() + " creates, "
+                        + result.getFailedUpdates() + " updates and "
+                        + result.getFailedDeletes() + " deletes failed.\n");
+            }
+        } finally {
+            HttpUtils.setConcurrencyLimiter(null);
+            HttpUtils.disableConnectionPool();
+        }
+    }
+
+    private void print(String action, List<User> users) {
+        for (User user : users) {
+            System.out.printf("%-8s %-38s %-40s\n", action, null != user.getId() ? user.getId()
+                    : "", user.getUserName());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.vmware.vchs.api.samples.services.helper.ApacheTransport;
+import com.vmware.vchs.api.samples.services.helper.ExchangeFile;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.RecordReplayTransport;
+
+/**
+ * This class lets a sample record its API calls with --record, or run offline from a recording
+ * with --replay and --speed. begin() binds a RecordReplayTransport to the calling thread and end()
+ * unbinds it, writing the recording if there is one:
+ *
+ * <pre>
+ * RecordReplayTransport traffic = RecordedTraffic.begin(options);
+ * try {
+ *     ...
+ * } finally {
+ *     RecordedTraffic.end(options, traffic);
+ * }
+ * </pre>
+ */
+public class RecordedTraffic {
+    /**
+     * Binds a recording or replaying transport to the calling thread as the options ask.
+     *
+     * @return the bound transport, null if the options ask for neither
+     */
+    public static RecordReplayTransport begin(SampleCommandLineOptions options) {
+        RecordReplayTransport traffic = null;
+        if (null != options.replay) {
+            try {
+                traffic = new RecordReplayTransport(new ExchangeFile(new File(options.replay))
+                        .read());
+            } catch (IOException e) {
+                throw new RuntimeException("Problem reading recorded calls from " + options.replay,
+                        e);
+            }
+
+            traffic.setReplaySpeed(options.speed);
+            System.out.println("Replaying " + traffic.getExchanges().size() + " calls from "
+                    + options.replay);
+        } else if (null != options.record) {
+            traffic = new RecordReplayTransport(new ApacheTransport(options.inflight));
+        }
+
+        if (null != traffic) {
+            HttpUtils.bindTransport(traffic);
+        }
+
+        return traffic;
+    }
+
+    /**
+     * Unbinds the transport bound by begin() and writes the recorded calls, if any.
+     */
+    public static void end(SampleCommandLineOptions options, RecordReplayTransport traffic) {
+        if (null == traffic) {
+            return;
+        }
+
+        HttpUtils.bindTransport(null);
+        traffic.shutdown();
+
+        if (traffic.isRecording()) {
+            try {
+                new ExchangeFile(new File(options.record)).write(traffic.getExchanges());
+                System.out.println("Recorded " + traffic.getExchanges().size() + " calls to "
+                        + options.record);
+            } catch (IOException e) {
+                System.out.println("Could not write recorded calls to " + options.record + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+}
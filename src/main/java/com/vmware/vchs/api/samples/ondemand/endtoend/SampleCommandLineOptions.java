@@ -43,6 +43,26 @@ public class SampleCommandLineOptions {
     static final String OPTION_VDC_TEMPLATE_NAME = "vdctemplatename";
     static final String OPTION_REGION = "region";
     static final String OPTION_NETWORK_NAME = "networkname";
+    static final String OPTION_TOPK = "topk";
+    static final String OPTION_GROUPBY = "groupby";
+    static final String OPTION_BILLED = "billed";
+    static final String OPTION_MONTH = "month";
+    static final String OPTION_YEAR = "year";
+    static final String OPTION_CACHE_DIR = "cachedir";
+    static final String OPTION_TARGETS = "targets";
+    static final String OPTION_INFLIGHT = "inflight";
+    static final String OPTION_INTERVAL = "interval";
+    static final String OPTION_INPUT = "input";
+    static final String OPTION_OUTPUT = "output";
+    static final String OPTION_EXPORT = "export";
+    static final String OPTION_RATE = "rate";
+    static final String OPTION_PRUNE = "prune";
+    static final String OPTION_DRY_RUN = "dryrun";
+    static final String OPTION_DELETE = "delete";
+    static final String OPTION_RECORD = "record";
+    static final String OPTION_REPLAY = "replay";
+    static final String OPTION_SPEED = "speed";
+    static final String OPTION_TRACE = "trace";
 
     // Command line arguments
     Option[] options = new Option[] {
@@ -69,6 +89,40 @@ public class SampleCommandLineOptions {
             new Option(OPTION_REGION, true, "The region the service may be found in."),
             new Option(OPTION_NETWORK_NAME, true,
                     "The name of the network to apply to a VM when creating or reconfiguring a VM."),
+            new Option(OPTION_TOPK, true, "The number of most expensive results to report."),
+            new Option(OPTION_GROUPBY, true,
+                    "Rank costs by entity or by billable, defaults to entity."),
+            new Option(OPTION_BILLED, false,
+                    "Report on billed usage of the last closed period instead of current usage."),
+            new Option(OPTION_MONTH, true, "The billing month (1-12) to report on."),
+            new Option(OPTION_YEAR, true, "The billing year to report on."),
+            new Option(OPTION_CACHE_DIR, true,
+                    "The directory to cache billed usage and the plan catalog in."),
+            new Option(OPTION_TARGETS, true,
+                    "The file listing the metering targets to collect, one per line."),
+            new Option(OPTION_INFLIGHT, true,
+                    "The maximum number of concurrent API calls, defaults to 8."),
+            new Option(OPTION_INTERVAL, true,
+                    "The default number of seconds between two polls of a target, defaults to 900."),
+            new Option(OPTION_INPUT, true, "The file to read users or instances from."),
+            new Option(OPTION_OUTPUT, true, "The file to write the result of each row to."),
+            new Option(OPTION_EXPORT, true, "The CSV or JSON file to export users to."),
+            new Option(OPTION_RATE, true,
+                    "The maximum number of API calls started per second, defaults to 10."),
+            new Option(OPTION_PRUNE, false, "Delete existing users that are not in the input file."),
+            new Option(OPTION_DRY_RUN, false, "Report the changes that would be made, make none."),
+            new Option(OPTION_DELETE, false,
+                    "Delete the instances listed in the input file instead of creating them."),
+            new Option(OPTION_RECORD, true,
+                    "The file to record the API calls of the run to, with secrets redacted."),
+            new Option(OPTION_REPLAY, true,
+                    "The recorded file to answer the API calls from instead of vCHS."),
+            new Option(OPTION_SPEED, true,
+                    "How many times faster than recorded to replay calls, 0 for no delay, the"
+                            + " default."),
+            new Option(OPTION_TRACE, true,
+                    "The file to write a timeline of the workflow steps and API calls to, in the"
+                            + " Chrome trace event format."),
     };
 
     /*
@@ -103,6 +157,26 @@ public class SampleCommandLineOptions {
     public String vdctemplatename;
     public String region;
     public String networkname;
+    public int topk = 20;
+    public String groupby = "entity";
+    public boolean billed;
+    public Integer month;
+    public Integer year;
+    public String cachedir;
+    public String targets;
+    public int inflight = 8;
+    public int interval = 900;
+    public String input;
+    public String output;
+    public String export;
+    public double rate = 10;
+    public boolean prune;
+    public boolean dryrun;
+    public boolean delete;
+    public String record;
+    public String replay;
+    public double speed;
+    public String trace;
 
     /**
      * This method returns the Apache Commons Cli Options instance that represents the common
@@ -212,6 +286,76 @@ public class SampleCommandLineOptions {
             if (cl.hasOption(OPTION_NETWORK_NAME)) {
                 networkname = cl.getOptionValue(OPTION_NETWORK_NAME);
             }
+
+            if (cl.hasOption(OPTION_TOPK)) {
+                topk = Integer.parseInt(cl.getOptionValue(OPTION_TOPK));
+            }
+
+            if (cl.hasOption(OPTION_GROUPBY)) {
+                groupby = cl.getOptionValue(OPTION_GROUPBY);
+            }
+
+            billed = cl.hasOption(OPTION_BILLED);
+
+            if (cl.hasOption(OPTION_MONTH)) {
+                month = Integer.valueOf(cl.getOptionValue(OPTION_MONTH));
+            }
+
+            if (cl.hasOption(OPTION_YEAR)) {
+                year = Integer.valueOf(cl.getOptionValue(OPTION_YEAR));
+            }
+
+            if (cl.hasOption(OPTION_CACHE_DIR)) {
+                cachedir = cl.getOptionValue(OPTION_CACHE_DIR);
+            }
+
+            if (cl.hasOption(OPTION_TARGETS)) {
+                targets = cl.getOptionValue(OPTION_TARGETS);
+            }
+
+            if (cl.hasOption(OPTION_INFLIGHT)) {
+                inflight = Integer.parseInt(cl.getOptionValue(OPTION_INFLIGHT));
+            }
+
+            if (cl.hasOption(OPTION_INTERVAL)) {
+                interval = Integer.parseInt(cl.getOptionValue(OPTION_INTERVAL));
+            }
+
+            if (cl.hasOption(OPTION_INPUT)) {
+                input = cl.getOptionValue(OPTION_INPUT);
+            }
+
+            if (cl.hasOption(OPTION_OUTPUT)) {
+                output = cl.getOptionValue(OPTION_OUTPUT);
+            }
+
+            if (cl.hasOption(OPTION_EXPORT)) {
+                export = cl.getOptionValue(OPTION_EXPORT);
+            }
+
+            if (cl.hasOption(OPTION_RATE)) {
+                rate = Double.parseDouble(cl.getOptionValue(OPTION_RATE));
+            }
+
+            prune = cl.hasOption(OPTION_PRUNE);
+            dryrun = cl.hasOption(OPTION_DRY_RUN);
+            delete = cl.hasOption(OPTION_DELETE);
+
+            if (cl.hasOption(OPTION_RECORD)) {
+                record = cl.getOptionValue(OPTION_RECORD);
+            }
+
+            if (cl.hasOption(OPTION_REPLAY)) {
+                replay = cl.getOptionValue(OPTION_REPLAY);
+            }
+
+            if (cl.hasOption(OPTION_SPEED)) {
+                speed = Double.parseDouble(cl.getOptionValue(OPTION_SPEED));
+            }
+
+            if (cl.hasOption(OPTION_TRACE)) {
+                trace = cl.getOptionValue(OPTION_TRACE);
+            }
         } catch (org.apache.commons.cli.ParseException e) {
             help.printHelp("vCHS Sample command line syntax", getOptions());
             System.exit(1);
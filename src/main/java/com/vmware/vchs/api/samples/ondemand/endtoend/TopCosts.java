@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License.    You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,  WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.ondemand.endtoend;
+
+import java.io.File;
+import java.util.List;
+
+import com.vmware.vchs.api.samples.services.Billing;
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.cost.BilledUsageCache;
+import com.vmware.vchs.api.samples.services.cost.FixedPointCost;
+import com.vmware.vchs.api.samples.services.cost.TopKCostTracker;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.vms.billabledata.v5.BilledUsageType;
+
+/**
+ * TopCosts
+ *
+ * This sample will log in to OnDemand with the provided username and password, then retrieve the
+ * usage of every service instance accessible to the logged in user and report the most expensive
+ * entities (or billables) across all of them. Only the requested number of results is kept in
+ * memory while the instances are scanned, so it can be run against tenants of any size.
+ *
+ * Parameters:
+ *
+ * hostname [required] : url of the vCHS onDeamn web service
+ * username [required] : username for the vCHS OnDemand authentication
+ * password [required] : password for the vCHS OnDemand authentication
+ * version  [required] : version of the vCHS OnDemand API
+ * topk     [optional] : the number of results to report, defaults to 20
+ * groupby  [optional] : entity or billable, defaults to entity
+ * billed   [optional] : report on billed usage of a closed period instead of current usage
+ * month    [optional] : the billing month to report on with --billed, defaults to the last billed
+ * year     [optional] : the billing year to report on with --billed, defaults to the last billed
+ * cachedir [optional] : directory to cache billed usage in, so closed periods are fetched once
+ *
+ * Argument Line:
+ *
+ * --hostname [vCHS webservice url] --username [vCHS username] --password [vCHS password]
+ * --version [vCHS API version] --topk [number of results] --groupby [entity|billable] --billed
+ * --month [billing month] --year [billing year] --cachedir [cache directory]
+ */
+public class TopCosts {
+    private SampleCommandLineOptions options = null;
+    private String authToken = null;
+
+    public static void main(String[] args) {
+        TopCosts instance = new TopCosts();
+        instance.go(args);
+    }
+
+    private void go(String[] args) {
+        // Disable Java 7 SNI SSL handshake bug as outlined here:
+        // (http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0)
+        System.setProperty("jsse.enableSNIExtension", "false");
+
+        // process command line arguments
+        options = new SampleCommandLineOptions();
+        options.parseOptions(args);
+
+        // Log in to vCHS API, getting a session in response if login is successful
+        System.out.print("\nConnecting to vCHS...");
+
+        authToken = IAM.login(options.hostname, options.username, options.password, options.version);
+
+        if (null != authToken) {
+            System.out.println("Success\n");
+
+            TopKCostTracker tracker = new TopKCostTracker(options.topk,
+                    "billable".equalsIgnoreCase(options.groupby) ? TopKCostTracker.Mode.BILLABLE
+                            : TopKCostTracker.Mode.ENTITY);
+
+            List<InstanceType> instances = ServiceController.getInstances(options.hostname,
+                    options.version, authToken);
+
+            // Billed usage of a closed period never changes, so it is only fetched once when a
+            // cache directory is provided
+            BilledUsageCache cache = null;
+            if (null != options.cachedir) {
+                cache = new BilledUsageCache(new File(options.cachedir), 64);
+            }
+
+            if (null != instances) {
+                for (InstanceType instance : instances) {
+                    System.out.print("Retrieving usage for " + instance.getName() + " - region: "
+                            + instance.getRegion() + "...");
+
+                    // Usage is streamed through the tracker as it is read off the wire, only the
+                    // top results are retained across instances.
+                    if (options.billed && null != cache) {
+                        BilledUsageType usage = cache.getBilledUsageForServiceInstance(
+                                options.hostname, authToken, options.version, instance.getId(),
+                                options.month, options.year);
+                        if (null != usage) {
+                            tracker.offerAll(instance.getId(), usage.getEntity());
+                        }
+                    } else if (options.billed) {
+                        Billing.visitBilledUsageForServiceInstance(options.hostname, authToken,
+                                options.version, instance.getId(), options.month, options.year,
+                                tracker.visitor(instance.getId()));
+                    } else {
+                        Metering.visitBillableUsage(options.hostname, authToken, options.version,
+                                instance.getId(), tracker.visitor(instance.getId()));
+                    }
+
+                    System.out.println("Done.");
+                }
+            }
+
+            System.out.println();
+            System.out.printf("%-38s %-38s %-30s %-20s %-40s %-10s\n", "Service Instance",
+                    "Entity", "Type", "Cost", "Billable", "Currency");
+            System.out.printf("%-38s %-38s %-30s %-20s %-40s %-10s\n", "----------------",
+                    "------", "----", "----", "--------", "--------");
+
+            for (TopKCostTracker.Entry entry : tracker.getResults()) {
+                System.out.printf("%-38s %-38s %-30s %-20s %-40s %-10s\n",
+                        entry.getServiceInstanceId(), entry.getEntityName(),
+                        entry.getEntityType(), FixedPointCost.toString(entry.getCost()),
+                        null != entry.getBillableName() ? entry.getBillableName() : "",
+                        entry.getCurrency());
+            }
+        } else {
+            System.out.println("Failed.\n");
+        }
+    }
+}
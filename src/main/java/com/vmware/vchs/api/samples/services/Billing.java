@@ -20,6 +20,8 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.UsageStreamParser;
+import com.vmware.vchs.api.samples.services.helper.UsageVisitor;
 import com.vmware.vchs.vms.billabledata.v5.BilledCostsType;
 import com.vmware.vchs.vms.billabledata.v5.BilledUsageType;
 import com.vmware.vchs.vms.billabledata.v5.ServiceGroupType;
@@ -111,8 +113,31 @@ public class Billing {
      */
     public static BilledCostsType getBilledCosts(String url, String authToken, String version,
             String serviceGroupId) {
+        return getBilledCosts(url, authToken, version, serviceGroupId, null, null);
+    }
+
+    /**
+     * List cost items associated with the specified service group for the provided billing month
+     * and year. If month or year is null the API default of the last billed month is used.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            the version of the API to invoke
+     * @param serviceGroupId
+     *            service group id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @return an instance of BilledCostsType or null
+     */
+    public static BilledCostsType getBilledCosts(String url, String authToken, String version,
+            String serviceGroupId, Integer month, Integer year) {
         HttpGet get = new HttpGet(url + "/api/billing/service-group/" + serviceGroupId
-                + "/billed-costs");
+                + "/billed-costs" + periodQuery(month, year));
         get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
         get.setHeader(HttpHeaders.ACCEPT,
                 "application/xml;class=vnd.vmware.vchs.billing.billedCosts;version=" + version);
@@ -148,11 +173,33 @@ public class Billing {
      */
     public static BilledUsageType getL1BilledUsage(String url, String authToken, String version,
             String serviceInstanceId, String l1id) {
-        HttpGet get = new HttpGet(url + "/api/billing/service-instance/" + serviceInstanceId
-                + "/l1/" + l1id + "/billed-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.billing.billedUsage;version=" + version);
+        return getL1BilledUsage(url, authToken, version, serviceInstanceId, l1id, null, null);
+    }
+
+    /**
+     * Gets billed usage for the specified L1 for the provided billing month and year. If month or
+     * year is null the API default of the last billed month is used.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l1id
+     *            the L1 id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @return an instance of BilledUsageType or null
+     */
+    public static BilledUsageType getL1BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l1id, Integer month, Integer year) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/l1/" + l1id + "/billed-usage" + periodQuery(month, year), authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -185,11 +232,33 @@ public class Billing {
      */
     public static BilledUsageType getL2BilledUsage(String url, String authToken, String version,
             String serviceInstanceId, String l2id) {
-        HttpGet get = new HttpGet(url + "/api/billing/service-instance/" + serviceInstanceId
-                + "/l2/" + l2id + "/billed-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.billing.billedUsage;version=" + version);
+        return getL2BilledUsage(url, authToken, version, serviceInstanceId, l2id, null, null);
+    }
+
+    /**
+     * Gets billed usage for the specified L2 for the provided billing month and year. If month or
+     * year is null the API default of the last billed month is used.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l2id
+     *            the L2 id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @return an instance of BilledUsageType or null
+     */
+    public static BilledUsageType getL2BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l2id, Integer month, Integer year) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/l2/" + l2id + "/billed-usage" + periodQuery(month, year), authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -221,11 +290,32 @@ public class Billing {
      */
     public static BilledUsageType getBilledUsageForServiceInstance(String url, String authToken,
             String version, String serviceInstanceId) {
-        HttpGet get = new HttpGet(url + "/api/billing/service-instance/" + serviceInstanceId
-                + "/billed-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.billing.billedUsage;version=" + version);
+        return getBilledUsageForServiceInstance(url, authToken, version, serviceInstanceId, null,
+                null);
+    }
+
+    /**
+     * Gets billed usage for the specified service instance for the provided billing month and
+     * year. If month or year is null the API default of the last billed month is used.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @return an instance of BilledUsageType or null
+     */
+    public static BilledUsageType getBilledUsageForServiceInstance(String url, String authToken,
+            String version, String serviceInstanceId, Integer month, Integer year) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/billed-usage" + periodQuery(month, year), authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -237,4 +327,119 @@ public class Billing {
 
         return null;
     }
+
+    /**
+     * Streaming variant of getL1BilledUsage(). Every entity and billable is passed to the visitor
+     * as soon as it has been read off the wire, so the usage document is never held in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l1id
+     *            the L1 id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitL1BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l1id, Integer month, Integer year,
+            UsageVisitor visitor) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/l1/" + l1id + "/billed-usage" + periodQuery(month, year), authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
+    /**
+     * Streaming variant of getL2BilledUsage(). Every entity and billable is passed to the visitor
+     * as soon as it has been read off the wire, so the usage document is never held in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param l2id
+     *            the L2 id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitL2BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l2id, Integer month, Integer year,
+            UsageVisitor visitor) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/l2/" + l2id + "/billed-usage" + periodQuery(month, year), authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
+    /**
+     * Streaming variant of getBilledUsageForServiceInstance(). Every entity and billable is passed
+     * to the visitor as soon as it has been read off the wire, so the usage document is never held
+     * in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param month
+     *            the billing month (1-12) or null
+     * @param year
+     *            the billing year or null
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitBilledUsageForServiceInstance(String url, String authToken,
+            String version, String serviceInstanceId, Integer month, Integer year,
+            UsageVisitor visitor) {
+        HttpGet get = billedUsageGet(url + "/api/billing/service-instance/" + serviceInstanceId
+                + "/billed-usage" + periodQuery(month, year), authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
+    /**
+     * Creates the GET request for one of the billed usage calls.
+     */
+    private static HttpGet billedUsageGet(String resourceUrl, String authToken, String version) {
+        HttpGet get = new HttpGet(resourceUrl);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
+        get.setHeader(HttpHeaders.ACCEPT,
+                "application/xml;class=vnd.vmware.vchs.billing.billedUsage;version=" + version);
+        return get;
+    }
+
+    /**
+     * Returns the month and year query parameters for the billed calls, or an empty string if
+     * either is null so the API defaults to the last billed month.
+     */
+    private static String periodQuery(Integer month, Integer year) {
+        if (null == month || null == year) {
+            return "";
+        }
+
+        return "?month=" + month + "&year=" + year;
+    }
 }
\ No newline at end of file
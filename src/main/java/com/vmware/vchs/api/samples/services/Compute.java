@@ -24,7 +24,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
 
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
@@ -142,8 +142,8 @@ public class Compute {
         JAXBElement<InstantiateVAppTemplateParamsType> instvAppTemplate = obj
                 .createInstantiateVAppTemplateParams(instvApp);
 
-        // Get the StringEntity marshaled instance
-        StringEntity se = HttpUtils.marshal(InstantiateVAppTemplateParamsType.class,
+        // Get the entity that marshals the instance
+        AbstractHttpEntity se = HttpUtils.marshal(InstantiateVAppTemplateParamsType.class,
                 instvAppTemplate);
 
         // Set the Content-Type header for the VM vApp template parameters
@@ -209,6 +209,10 @@ public class Compute {
         if (null != vApp.getChildren()) {
             List<VmType> vms = vApp.getChildren().getVm();
 
+            // The up vApp is the same for every VM, so it is retrieved at most once
+            VAppType upVApp = null;
+            boolean upVAppRetrieved = false;
+
             for (VmType vm : vms) {
                 List<LinkType> links = vm.getLink();
 
@@ -216,20 +220,24 @@ public class Compute {
                     // If there is a rel="up", we use that to get the ID and match it to the
                     // passed in vApp id
                     if (link.getRel().equalsIgnoreCase("up")) {
-                        // make GET request to get the up vApp to compare it to the
-                        // passed in vApp
-                        HttpGet get = new HttpGet(vApp.getHref());
-                        get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
-                        get.setHeader(HttpHeaders.ACCEPT,
-                                SampleConstants.APPLICATION_PLUS_XML_VERSION + version
-                                        + ";charset=utf-8");
-                        HttpResponse response = HttpUtils.httpInvoke(get);
-                        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                            VAppType upVApp = HttpUtils.unmarshal(response.getEntity(),
-                                    VAppType.class);
-                            if (upVApp.getName().equalsIgnoreCase(vmName)) {
-                                return vm;
+                        if (!upVAppRetrieved) {
+                            // make GET request to get the up vApp to compare it to the
+                            // passed in vApp
+                            HttpGet get = new HttpGet(vApp.getHref());
+                            get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
+                            get.setHeader(HttpHeaders.ACCEPT,
+                                    SampleConstants.APPLICATION_PLUS_XML_VERSION + version
+                                            + ";charset=utf-8");
+                            HttpResponse response = HttpUtils.httpInvoke(get);
+                            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                                upVApp = HttpUtils.unmarshal(response.getEntity(),
+                                        VAppType.class);
                             }
+                            upVAppRetrieved = true;
+                        }
+
+                        if (null != upVApp && upVApp.getName().equalsIgnoreCase(vmName)) {
+                            return vm;
                         }
                     }
                 }
@@ -402,8 +410,8 @@ public class Compute {
             JAXBElement<InstantiateVdcTemplateParamsType> t = obj
                     .createInstantiateVdcTemplateParams(newTemplate);
 
-            // Get the StringEntity marshaled instance
-            StringEntity se = HttpUtils.marshal(InstantiateVdcTemplateParamsType.class, t);
+            // Get the entity that marshals the instance
+            AbstractHttpEntity se = HttpUtils.marshal(InstantiateVdcTemplateParamsType.class, t);
 
             // Set it as the POST body
             post.setEntity(se);
@@ -605,8 +613,9 @@ public class Compute {
             JAXBElement<DeployVAppParamsType> deployParamsType = obj
                     .createDeployVAppParams(deployParams);
 
-            // Get the StringEntity marshaled instance
-            StringEntity se = HttpUtils.marshal(DeployVAppParamsType.class, deployParamsType);
+            // Get the entity that marshals the instance
+            AbstractHttpEntity se = HttpUtils.marshal(DeployVAppParamsType.class,
+                    deployParamsType);
 
             HttpPost deployPost = new HttpPost(deployHref);
             deployPost.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_PLUS_XML_VERSION
@@ -685,10 +694,18 @@ public class Compute {
                     + version + ";charset=utf-8");
             get.setHeader(SampleConstants.VCD_AUTHORIZATION_HEADER, token);
 
+            // The poll is a GET, so transient failures are already retried by httpInvoke; a poll
+            // that still failed keeps the last known task and counts as one retry
             HttpResponse response = HttpUtils.httpInvoke(get);
-            statusTask = HttpUtils.unmarshal(response.getEntity(), TaskType.class);
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                TaskType polled = HttpUtils.unmarshal(response.getEntity(), TaskType.class);
+                if (null != polled) {
+                    statusTask = polled;
+                }
+            }
 
-            if (null != statusTask && statusTask.getStatus().equalsIgnoreCase("running")) {
+            if (!statusTask.getStatus().equalsIgnoreCase("success")
+                    && !statusTask.getStatus().equalsIgnoreCase("error")) {
                 System.out.print(".");
                 try {
                     TimeUnit.SECONDS.sleep(10);
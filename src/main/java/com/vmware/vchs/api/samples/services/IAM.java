@@ -12,29 +12,30 @@
 package com.vmware.vchs.api.samples.services;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-
-import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.InputStreamReader;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.ondemand.endtoend.SampleCommandLineOptions;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.JsonCodec;
+import com.vmware.vchs.api.samples.services.helper.JsonEntity;
+import com.vmware.vchs.api.samples.services.helper.UserVisitor;
 import com.vmware.vchs.iam.v2.User;
 import com.vmware.vchs.iam.v2.Users;
 import com.vmware.vchs.sc.common.v1.ErrorType;
@@ -121,6 +122,68 @@ public class IAM {
         return null;
     }
 
+    /**
+     * Streaming variant of getUsers(). The Users response is requested as JSON and every user is
+     * passed to the visitor as soon as it has been read, so the full user list is never held in
+     * memory.
+     * 
+     * @param url
+     *            the hostname url to send the request to
+     * @param token
+     *            the OAUTH token to authenticate the request with
+     * @param version
+     *            version of the API to invoke
+     * @param visitor
+     *            the visitor to call for every user
+     * @return true if the users were retrieved and visited
+     */
+    public static boolean visitUsers(String url, String token, String version,
+            final UserVisitor visitor) {
+        HttpGet get = new HttpGet(url + USERS_URL_RESOURCE);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        get.setHeader(HttpHeaders.ACCEPT,
+                "application/json;class=com.vmware.vchs.iam.api.schema.v2.classes.user.Users;version="
+                        + version);
+
+        Boolean visited = HttpUtils.httpInvoke(get, new ResponseHandler<Boolean>() {
+            public Boolean handleResponse(HttpResponse response) throws IOException {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+                        || null == response.getEntity()) {
+                    System.out.println("ERROR . " + response.getStatusLine().getStatusCode());
+                    return Boolean.FALSE;
+                }
+
+                Gson g = JsonCodec.gson();
+                JsonReader reader = new JsonReader(new InputStreamReader(response.getEntity()
+                        .getContent(), "UTF-8"));
+                try {
+                    // { "users" : [ {user}, {user}, ... ] }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("users".equals(reader.nextName())
+                                && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                User user = g.fromJson(reader, User.class);
+                                visitor.visitUser(user);
+                            }
+                            reader.endArray();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } finally {
+                    reader.close();
+                }
+
+                return Boolean.TRUE;
+            }
+        });
+
+        return Boolean.TRUE.equals(visited);
+    }
+
     /**
      * This method will return the User instance of the logged in user, which will include the
      * logged in users companyId and serviceGroupId(s) which can be used for creating new users, and
@@ -169,23 +232,10 @@ public class IAM {
                 "application/json;class=com.vmware.vchs.iam.api.schema.v2.classes.user.User;version="
                         + version);
 
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Serializer());
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Deserializer());
-        Gson g = gsonBuilder.create();
-
-        String userToSend = g.toJson(user);
+        Gson g = JsonCodec.gson();
 
-        HttpEntity entity;
-
-        try {
-            entity = new StringEntity(userToSend);
-            post.setEntity(entity);
-        } catch (UnsupportedEncodingException e1) {
-            e1.printStackTrace();
-        }
+        // Encoded as UTF-8 JSON while the request is sent
+        post.setEntity(new JsonEntity(user));
 
         HttpResponse response = HttpUtils.httpInvoke(post);
         if (null != response && response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED) {
@@ -232,26 +282,8 @@ public class IAM {
                         + version);
         put.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_JSON_VERSION + version);
 
-        // Configure the GSON object
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Serializer());
-        gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                new HttpUtils.XMLGregorianClassConverter.Deserializer());
-        Gson g = gsonBuilder.create();
-
-        // Convert the object to JSON
-        String userToSend = g.toJson(user);
-
-        HttpEntity entity;
-
-        try {
-            // Configure the HttpEntity with the JSON string
-            entity = new StringEntity(userToSend);
-            put.setEntity(entity);
-        } catch (UnsupportedEncodingException e1) {
-            e1.printStackTrace();
-        }
+        // Configure the entity that encodes the user as UTF-8 JSON while the request is sent
+        put.setEntity(new JsonEntity(user));
 
         // Send the PUT request
         HttpResponse response = HttpUtils.httpInvoke(put);
@@ -20,6 +20,8 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.UsageStreamParser;
+import com.vmware.vchs.api.samples.services.helper.UsageVisitor;
 import com.vmware.vchs.vms.billabledata.v5.BillableCostsType;
 import com.vmware.vchs.vms.billabledata.v5.BillableUsageType;
 
@@ -50,11 +52,8 @@ public class Metering {
     public static BillableUsageType getL1BillableUsage(String url, String authToken,
             String version, String serviceInstanceId, String l1Id) {
 
-        HttpGet get = new HttpGet(url + "/api/metering/service-instance/" + serviceInstanceId
-                + "/l1/" + l1Id + "/billable-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.metering.billableUsage;version=" + version);
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/l1/" + l1Id + "/billable-usage", authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -90,11 +89,8 @@ public class Metering {
     public static BillableUsageType getL2BillableUsage(String url, String authToken,
             String version, String serviceInstanceId, String l2Id) {
 
-        HttpGet get = new HttpGet(url + "/api/metering/service-instance/" + serviceInstanceId
-                + "/l2/" + l2Id + "/billable-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.metering.billableUsage;version=" + version);
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/l2/" + l2Id + "/billable-usage", authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -129,11 +125,8 @@ public class Metering {
     public static BillableUsageType getBillableUsage(String url, String authToken, String version,
             String serviceInstanceId) {
 
-        HttpGet get = new HttpGet(url + "/api/metering/service-instance/" + serviceInstanceId
-                + "/billable-usage");
-        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
-        get.setHeader(HttpHeaders.ACCEPT,
-                "application/xml;class=vnd.vmware.vchs.metering.billableUsage;version=" + version);
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/billable-usage", authToken, version);
 
         HttpResponse response = HttpUtils.httpInvoke(get);
 
@@ -146,6 +139,82 @@ public class Metering {
         return null;
     }
 
+    /**
+     * Streaming variant of getL1BillableUsage(). Every entity and billable is passed to the visitor
+     * as soon as it has been read off the wire, so the usage document is never held in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance ID
+     * @param l1Id
+     *            the L1 id
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitL1BillableUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l1Id, UsageVisitor visitor) {
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/l1/" + l1Id + "/billable-usage", authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
+    /**
+     * Streaming variant of getL2BillableUsage(). Every entity and billable is passed to the visitor
+     * as soon as it has been read off the wire, so the usage document is never held in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance ID
+     * @param l2Id
+     *            the L2 id
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitL2BillableUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l2Id, UsageVisitor visitor) {
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/l2/" + l2Id + "/billable-usage", authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
+    /**
+     * Streaming variant of getBillableUsage(). Every entity and billable is passed to the visitor
+     * as soon as it has been read off the wire, so the usage document is never held in memory.
+     * 
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param serviceInstanceId
+     *            the service instance id
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the usage was retrieved and visited
+     */
+    public static boolean visitBillableUsage(String url, String authToken, String version,
+            String serviceInstanceId, UsageVisitor visitor) {
+        HttpGet get = billableUsageGet(url + "/api/metering/service-instance/"
+                + serviceInstanceId + "/billable-usage", authToken, version);
+
+        return UsageStreamParser.visit(get, visitor);
+    }
+
     /**
      * Represent billable/current value of cost items associated with the specified service group;
      * Only those cost items are listed which are available after last bill cut/generation date. It
@@ -182,4 +251,15 @@ public class Metering {
 
         return null;
     }
+
+    /**
+     * Creates the GET request for one of the billable usage calls.
+     */
+    private static HttpGet billableUsageGet(String resourceUrl, String authToken, String version) {
+        HttpGet get = new HttpGet(resourceUrl);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + authToken);
+        get.setHeader(HttpHeaders.ACCEPT,
+                "application/xml;class=vnd.vmware.vchs.metering.billableUsage;version=" + version);
+        return get;
+    }
 }
\ No newline at end of file
@@ -11,21 +11,18 @@
  */
 package com.vmware.vchs.api.samples.services;
 
-import java.io.UnsupportedEncodingException;
 import java.util.List;
 
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
 
-import com.google.gson.Gson;
 import com.vmware.vchs.api.samples.SampleConstants;
 import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.JsonEntity;
 import com.vmware.vchs.sc.instance.v1.InstanceListType;
 import com.vmware.vchs.sc.instance.v1.InstanceType;
 import com.vmware.vchs.sc.service.v1.PlanListType;
@@ -86,7 +83,7 @@ public class ServiceController {
     }
 
     /**
-     * Creates an instance of the service provided by the instanceId
+     * Creates an instance of the service provided by the instanceId, named NewVDC
      * 
      * @param hostname
      * @param version
@@ -96,6 +93,24 @@ public class ServiceController {
      */
     public static boolean createInstance(String hostname, String version, String token,
             String planId, String serviceGroupId) {
+        return createInstance(hostname, version, token, planId, serviceGroupId, "NewVDC",
+                "A description of new service");
+    }
+
+    /**
+     * Creates an instance of the plan in the service group with the provided name and description
+     * 
+     * @param hostname
+     * @param version
+     * @param token
+     * @param planId
+     * @param serviceGroupId
+     * @param name
+     * @param description
+     * @return true if the instance was created
+     */
+    public static boolean createInstance(String hostname, String version, String token,
+            String planId, String serviceGroupId, String name, String description) {
         HttpPost post = new HttpPost(hostname + "/api/sc/instances");
         post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
         post.setHeader(HttpHeaders.ACCEPT, SampleConstants.APPLICATION_JSON_VERSION + version
@@ -104,22 +119,13 @@ public class ServiceController {
                 + ";class=com.vmware.vchs.sc.restapi.model.instancespecparamstype");
 
         InstanceType it = new InstanceType();
-        it.setName("NewVDC");
-        it.setDescription("A description of new service");
+        it.setName(name);
+        it.setDescription(description);
         it.setPlanId(planId);
         it.setServiceGroupId(serviceGroupId);
 
-        Gson g = new Gson();
-
-        String instanceToCreate = g.toJson(it);
-
-        HttpEntity entity;
-        try {
-            entity = new StringEntity(instanceToCreate);
-            post.setEntity(entity);
-        } catch (UnsupportedEncodingException e1) {
-            e1.printStackTrace();
-        }
+        // Encoded as UTF-8 JSON while the request is sent
+        post.setEntity(new JsonEntity(it));
 
         HttpResponse response = HttpUtils.httpInvoke(post);
 
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXB;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import com.vmware.vchs.api.samples.services.Billing;
+import com.vmware.vchs.vms.billabledata.v5.BilledCostsType;
+import com.vmware.vchs.vms.billabledata.v5.BilledUsageType;
+import com.vmware.vchs.vms.billabledata.v5.ObjectFactory;
+
+/**
+ * This class caches the results of the Billing API billed calls. Billed costs and usage are only
+ * returned for months whose bill has been generated, so a successful response can never change
+ * and is kept permanently: in a bounded in-memory LRU and as a gzip compressed XML file per
+ * service group or instance and period. Both hold the compressed XML rather than the decoded
+ * objects, so every call returns its own copy that the caller is free to modify. Only a request
+ * for a period that is not cached yet, or one that does not name a period (the API then picks the
+ * last billed month), goes to the network. The open period is served by the Metering API and is
+ * never cached here. This class is thread safe.
+ */
+public class BilledUsageCache {
+    private static final ObjectFactory FACTORY = new ObjectFactory();
+
+    private static JAXBContext usageContext;
+    private static JAXBContext costsContext;
+
+    private final File directory;
+    private final Map<String, byte[]> heap;
+
+    /**
+     * Creates a cache that stores its files under directory and keeps up to maxHeapEntries results
+     * in memory.
+     *
+     * @param directory
+     *            the directory to store the cache files in, created if it does not exist
+     * @param maxHeapEntries
+     *            the number of most recently used results to keep in memory
+     */
+    public BilledUsageCache(File directory, final int maxHeapEntries) {
+        this.directory = directory;
+        this.heap = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxHeapEntries;
+            }
+        });
+    }
+
+    /**
+     * Cached variant of Billing.getBilledCosts(). If month or year is null the last billed month is
+     * fetched from the network and cached under the period it reports.
+     */
+    public BilledCostsType getBilledCosts(String url, String authToken, String version,
+            String serviceGroupId, Integer month, Integer year) {
+        String path = path("service-group", serviceGroupId, "billed-costs");
+        BilledCostsType costs = get(path, month, year, BilledCostsType.class);
+
+        if (null == costs) {
+            costs = Billing.getBilledCosts(url, authToken, version, serviceGroupId, month, year);
+            if (null != costs) {
+                put(path, costs.getMonth(), costs.getYear(), costs);
+            }
+        }
+
+        return costs;
+    }
+
+    /**
+     * Cached variant of Billing.getL1BilledUsage().
+     */
+    public BilledUsageType getL1BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l1id, Integer month, Integer year) {
+        String path = path("service-instance", serviceInstanceId, "l1-" + l1id);
+        BilledUsageType usage = get(path, month, year, BilledUsageType.class);
+
+        if (null == usage) {
+            usage = Billing.getL1BilledUsage(url, authToken, version, serviceInstanceId, l1id,
+                    month, year);
+            if (null != usage) {
+                put(path, usage.getMonth(), usage.getYear(), usage);
+            }
+        }
+
+        return usage;
+    }
+
+    /**
+     * Cached variant of Billing.getL2BilledUsage().
+     */
+    public BilledUsageType getL2BilledUsage(String url, String authToken, String version,
+            String serviceInstanceId, String l2id, Integer month, Integer year) {
+        String path = path("service-instance", serviceInstanceId, "l2-" + l2id);
+        BilledUsageType usage = get(path, month, year, BilledUsageType.class);
+
+        if (null == usage) {
+            usage = Billing.getL2BilledUsage(url, authToken, version, serviceInstanceId, l2id,
+                    month, year);
+            if (null != usage) {
+                put(path, usage.getMonth(), usage.getYear(), usage);
+            }
+        }
+
+        return usage;
+    }
+
+    /**
+     * Cached variant of Billing.getBilledUsageForServiceInstance().
+     */
+    public BilledUsageType getBilledUsageForServiceInstance(String url, String authToken,
+            String version, String serviceInstanceId, Integer month, Integer year) {
+        String path = path("service-instance", serviceInstanceId, "billed-usage");
+        BilledUsageType usage = get(path, month, year, BilledUsageType.class);
+
+        if (null == usage) {
+            usage = Billing.getBilledUsageForServiceInstance(url, authToken, version,
+                    serviceInstanceId, month, year);
+            if (null != usage) {
+                put(path, usage.getMonth(), usage.getYear(), usage);
+            }
+        }
+
+        return usage;
+    }
+
+    private <T> T get(String path, Integer month, Integer year, Class<T> clazz) {
+        if (null == month || null == year) {
+            return null;
+        }
+
+        String key = key(path, month, year);
+        byte[] cached = heap.get(key);
+        if (null == cached) {
+            File file = new File(directory, key);
+            if (!file.isFile()) {
+                return null;
+            }
+
+            try {
+                cached = read(file);
+            } catch (IOException e) {
+                // An unreadable file is treated as a miss and rewritten after the next fetch
+                return null;
+            }
+        }
+
+        // Decode a new copy on every call, callers may modify what they get
+        InputStream is = null;
+        try {
+            is = new GZIPInputStream(new ByteArrayInputStream(cached));
+            T value = JAXB.unmarshal(is, clazz);
+            if (null != value) {
+                heap.put(key, cached);
+            }
+            return value;
+        } catch (IOException e) {
+            return null;
+        } catch (DataBindingException e) {
+            return null;
+        } finally {
+            close(is);
+        }
+    }
+
+    private void put(String path, Integer month, Integer year, Object value) {
+        if (null == month || null == year) {
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            OutputStream os = new GZIPOutputStream(bos);
+            createMarshaller(value).marshal(toElement(value), os);
+            os.close();
+            bytes = bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Problem compressing billing cache entry", e);
+        } catch (JAXBException e) {
+            throw new RuntimeException("Problem marshalling billing cache entry", e);
+        }
+
+        String key = key(path, month, year);
+        heap.put(key, bytes);
+
+        File file = new File(directory, key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new RuntimeException("Could not create cache directory " + parent);
+        }
+
+        // Write to a temporary file first so a reader never sees a partial file
+        File tmp = new File(parent, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(tmp));
+            os.write(bytes);
+            os.close();
+            os = null;
+
+            if (!tmp.renameTo(file)) {
+                // another thread cached the same period first
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Problem writing billing cache file " + file, e);
+        } finally {
+            close(os);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static synchronized Marshaller createMarshaller(Object value) throws JAXBException {
+        // JAXBContext creation is expensive, so each is created once and shared
+        JAXBContext context;
+        if (value instanceof BilledUsageType) {
+            if (null == usageContext) {
+                usageContext = JAXBContext.newInstance(BilledUsageType.class);
+            }
+            context = usageContext;
+        } else {
+            if (null == costsContext) {
+                costsContext = JAXBContext.newInstance(BilledCostsType.class);
+            }
+            context = costsContext;
+        }
+
+        return context.createMarshaller();
+    }
+
+    private static JAXBElement<?> toElement(Object value) {
+        if (value instanceof BilledUsageType) {
+            return FACTORY.createBilledUsage((BilledUsageType) value);
+        }
+
+        return FACTORY.createBilledCosts((BilledCostsType) value);
+    }
+
+    private static String path(String kind, String id, String call) {
+        return kind + File.separator + sanitize(id) + File.separator + sanitize(call);
+    }
+
+    private static String key(String path, int month, int year) {
+        return path + "-" + year + "-" + (month < 10 ? "0" : "") + month + ".xml.gz";
+    }
+
+    /*
+     * Turns s into a single path segment that stays inside its directory: every character other
+     * than a letter, digit, '-' or a '.' that is not the first character is escaped as _ and its
+     * four hex digits, so ".", ".." and separators never reach the file system and distinct values
+     * never share a file.
+     */
+    private static String sanitize(String s) {
+        String value = String.valueOf(s);
+        if (value.length() == 0) {
+            return "_";
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || (c == '.' && i > 0)) {
+                sb.append(c);
+            } else {
+                sb.append('_').append(String.format("%04x", (int) c));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void close(Closeable c) {
+        if (null != c) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing more can be done
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vchs.vms.billabledata.v5.BillableListType;
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VAppType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VdcType;
+import com.vmware.vcloud.api.rest.schema_v1_5.VmType;
+
+/**
+ * This class attributes metering and billing costs to the compute inventory. The VDCs, vApps and
+ * VMs returned by the Compute API are first indexed into hash maps keyed by id and by name, then
+ * each usage EntityType is joined to the matching VM (or VDC) with a single lookup and its cost is
+ * added to the VM, vApp and VDC rollups. Indexing and attribution are both a single pass, so large
+ * inventories never need a nested scan of entities against VMs. This class is not thread safe.
+ */
+public class CostAttribution {
+    /**
+     * The accumulated cost of a single VDC, vApp or VM.
+     */
+    public static class Rollup {
+        private final String id;
+        private final String name;
+        private final Rollup parent;
+        private final CostTotals totals = new CostTotals();
+
+        Rollup(String id, String name, Rollup parent) {
+            this.id = id;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the vApp of a VM rollup, the VDC of a vApp rollup or null for a VDC rollup.
+         */
+        public Rollup getParent() {
+            return parent;
+        }
+
+        public CostTotals getTotals() {
+            return totals;
+        }
+
+        void add(String currency, long cost) {
+            for (Rollup r = this; null != r; r = r.parent) {
+                r.totals.add(currency, cost);
+            }
+        }
+    }
+
+    private final Map<String, Rollup> vdcs = new LinkedHashMap<String, Rollup>();
+    private final Map<String, Rollup> vapps = new LinkedHashMap<String, Rollup>();
+    private final Map<String, Rollup> vms = new LinkedHashMap<String, Rollup>();
+
+    // Secondary indexes used when a usage entity does not carry an id
+    private final Map<String, Rollup> vdcsByName = new HashMap<String, Rollup>();
+    private final Map<String, Rollup> vmsByName = new HashMap<String, Rollup>();
+
+    // Stored in the name indexes for a name shared by more than one VDC or VM
+    private static final Rollup AMBIGUOUS = new Rollup(null, null, null);
+
+    private final CostTotals unattributed = new CostTotals();
+    private int unattributedEntities;
+
+    /**
+     * Indexes the passed in VDC together with its vApps (as returned by Compute.getVAppsForVdc) and
+     * their child VMs.
+     *
+     * @param vdc
+     *            the VDC to index
+     * @param vdcVApps
+     *            the vApps of the VDC, may be null
+     */
+    public void indexVdc(VdcType vdc, Collection<VAppType> vdcVApps) {
+        Rollup vdcRollup = new Rollup(normalizeId(vdc.getId()), vdc.getName(), null);
+        vdcs.put(vdcRollup.getId(), vdcRollup);
+        putName(vdcsByName, vdc.getName(), vdcRollup);
+
+        if (null == vdcVApps) {
+            return;
+        }
+
+        for (VAppType vapp : vdcVApps) {
+            if (null == vapp) {
+                continue;
+            }
+
+            Rollup vappRollup = new Rollup(normalizeId(vapp.getId()), vapp.getName(), vdcRollup);
+            vapps.put(vappRollup.getId(), vappRollup);
+
+            if (null != vapp.getChildren()) {
+                for (VmType vm : vapp.getChildren().getVm()) {
+                    Rollup vmRollup = new Rollup(normalizeId(vm.getId()), vm.getName(), vappRollup);
+                    vms.put(vmRollup.getId(), vmRollup);
+                    putName(vmsByName, vm.getName(), vmRollup);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attributes the cost of every passed in usage entity.
+     *
+     * @param entities
+     *            the entities of a metering or billing usage response
+     */
+    public void attributeAll(List<EntityType> entities) {
+        if (null != entities) {
+            for (EntityType entity : entities) {
+                attribute(entity);
+            }
+        }
+    }
+
+    /**
+     * Attributes the cost of the passed in usage entity to the VM or VDC it names. The entity is
+     * matched on its id, or on its name if it has no id. An entity whose id matches nothing, e.g. a
+     * deleted VM, is not matched on its name, nor is a name shared by several VMs or VDCs, as VM
+     * names are only unique within a vApp. Costs of entities that do not match anything in the
+     * inventory are added to getUnattributed().
+     *
+     * @param entity
+     *            the usage entity
+     * @return true if the entity matched a VM or VDC
+     */
+    public boolean attribute(EntityType entity) {
+        Rollup target = find(entity);
+
+        BillableListType billableList = entity.getBillableList();
+        if (null != billableList) {
+            for (BillableType billable : billableList.getBillable()) {
+                long cost = FixedPointCost.fromBigDecimal(billable.getCost());
+                if (null != target) {
+                    target.add(billable.getCurrency(), cost);
+                } else {
+                    unattributed.add(billable.getCurrency(), cost);
+                }
+            }
+        }
+
+        if (null == target) {
+            unattributedEntities++;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the VDC rollups in the order they were indexed.
+     */
+    public Collection<Rollup> getVdcRollups() {
+        return vdcs.values();
+    }
+
+    /**
+     * Returns the vApp rollups in the order they were indexed.
+     */
+    public Collection<Rollup> getVAppRollups() {
+        return vapps.values();
+    }
+
+    /**
+     * Returns the VM rollups in the order they were indexed.
+     */
+    public Collection<Rollup> getVmRollups() {
+        return vms.values();
+    }
+
+    /**
+     * Returns the total cost of entities that did not match the inventory.
+     */
+    public CostTotals getUnattributed() {
+        return unattributed;
+    }
+
+    /**
+     * Returns the number of entities that did not match the inventory.
+     */
+    public int getUnattributedEntityCount() {
+        return unattributedEntities;
+    }
+
+    private Rollup find(EntityType entity) {
+        String id = normalizeId(entity.getId());
+        if (null != id) {
+            Rollup rollup = vms.get(id);
+            if (null == rollup) {
+                rollup = vdcs.get(id);
+            }
+            return rollup;
+        }
+
+        String name = entity.getName();
+        if (null != name) {
+            String key = name.toLowerCase();
+            Rollup rollup = vmsByName.get(key);
+            if (null == rollup) {
+                rollup = vdcsByName.get(key);
+            }
+            return rollup != AMBIGUOUS ? rollup : null;
+        }
+
+        return null;
+    }
+
+    private static void putName(Map<String, Rollup> index, String name, Rollup rollup) {
+        if (null != name) {
+            String key = name.toLowerCase();
+            Rollup previous = index.put(key, rollup);
+            if (null != previous && previous != rollup) {
+                index.put(key, AMBIGUOUS);
+            }
+        }
+    }
+
+    /**
+     * Compute ids look like urn:vcloud:vm:{uuid} while the metering API uses the bare uuid (see the
+     * ListVdcAndVmIds sample), so everything up to the last colon is dropped.
+     */
+    private static String normalizeId(String id) {
+        if (null == id) {
+            return null;
+        }
+
+        return id.substring(id.lastIndexOf(':') + 1).toLowerCase();
+    }
+}
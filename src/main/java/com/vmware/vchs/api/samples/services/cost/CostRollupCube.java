@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+import com.vmware.vchs.vms.billabledata.v5.BillableListType;
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+
+/**
+ * This class maintains a pre-aggregated cost cube over metering samples. Every billable is keyed by
+ * scope, region, service group, service instance, entity and unit, and on update the cost and
+ * usage are added to all 32 combinations of the last five dimensions with any subset of them
+ * rolled up. A query for any slice is therefore a single hash lookup and a group-by is one lookup
+ * per distinct value of the grouped dimension.
+ *
+ * The scope is the metering call a sample came from: the whole service instance, an L1 or an L2.
+ * The same usage is reported by each of them, an L1 sample covers part of what the instance sample
+ * of its service instance covers, so the scope is never rolled up and every key names one. ENTITY
+ * is the id of an entity of the sample, i.e. the entities the call of the scope breaks its usage
+ * down into. A region, service group, entity or unit that is not known is recorded as UNKNOWN.
+ *
+ * Metering reports bill-to-date usage, so a new sample for a service instance, scope and L1/L2 id
+ * replaces the previous one: its earlier contribution is subtracted before the new one is added.
+ * A cell is dropped once its last billable has been subtracted, and a dimension value once no
+ * billable has it, so the cube only grows with the samples currently applied.
+ * Updates hold a write lock and queries a read lock, so a query never sees a sample half replaced
+ * and a group-by sees every group as of the same update.
+ */
+public class CostRollupCube {
+    /**
+     * The dimensions of the cube.
+     */
+    public enum Dimension {
+        SCOPE, REGION, SERVICE_GROUP, SERVICE_INSTANCE, ENTITY, UNIT
+    }
+
+    /**
+     * The metering call a sample came from.
+     */
+    public enum Scope {
+        /**
+         * Metering.getBillableUsage for the whole service instance
+         */
+        INSTANCE,
+
+        /**
+         * Metering.getL1BillableUsage
+         */
+        L1,
+
+        /**
+         * Metering.getL2BillableUsage
+         */
+        L2
+    }
+
+    /**
+     * The value recorded for a dimension whose value is not known. It is never a rolled up value,
+     * query it like any other value.
+     */
+    public static final String UNKNOWN = "(unknown)";
+
+    private static final int DIMENSIONS = Dimension.values().length;
+
+    /**
+     * A cell coordinate. A null value for a dimension other than SCOPE means the dimension is
+     * rolled up (all values).
+     */
+    public static final class Key {
+        private final String[] values;
+        private final int hash;
+
+        private Key(String[] values) {
+            if (null == values[Dimension.SCOPE.ordinal()]) {
+                throw new IllegalArgumentException("The scope of a key can not be rolled up");
+            }
+
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        /**
+         * Creates a key, pass null for any dimension that should be rolled up.
+         *
+         * @param scope
+         *            the scope, required
+         */
+        public static Key of(Scope scope, String region, String serviceGroupId,
+                String serviceInstanceId, String entityId, String unit) {
+            return new Key(new String[] { null != scope ? scope.name() : null, region,
+                    serviceGroupId, serviceInstanceId, entityId, unit });
+        }
+
+        /**
+         * Returns the value of the passed in dimension, null if it is rolled up.
+         */
+        public String get(Dimension dimension) {
+            return values[dimension.ordinal()];
+        }
+
+        /**
+         * Returns a copy of this key with the passed in dimension set to value.
+         */
+        public Key with(Dimension dimension, String value) {
+            String[] copy = values.clone();
+            copy[dimension.ordinal()] = value;
+            return new Key(copy);
+        }
+
+        /*
+         * Keeps the dimensions whose bit is set in mask and rolls up the others, the scope is
+         * always kept. As no value of a contribution key is null every mask gives a distinct key,
+         * so a billable is added to a cell only once.
+         */
+        Key mask(int mask) {
+            String[] masked = new String[DIMENSIONS];
+            masked[0] = values[0];
+            for (int i = 1; i < DIMENSIONS; i++) {
+                if ((mask & (1 << (i - 1))) != 0) {
+                    masked[i] = values[i];
+                }
+            }
+
+            return new Key(masked);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(values);
+        }
+    }
+
+    /**
+     * The aggregated cost and usage of a cell. Usage is only meaningful for a key with a unit.
+     */
+    public static class Aggregate {
+        private final CostTotals cost = new CostTotals();
+        private long usage;
+        private int billables;
+
+        public CostTotals getCost() {
+            return cost;
+        }
+
+        /**
+         * Returns the fixed-point usage (see FixedPointCost).
+         */
+        public long getUsage() {
+            return usage;
+        }
+
+        /**
+         * Returns the number of billables aggregated in the cell.
+         */
+        public int getBillableCount() {
+            return billables;
+        }
+
+        void add(String currency, long cost, long usage, int billables) {
+            this.cost.add(currency, cost);
+            this.usage = FixedPointCost.add(this.usage, usage);
+            this.billables += billables;
+        }
+
+        Aggregate copy() {
+            Aggregate copy = new Aggregate();
+            copy.cost.addAll(cost);
+            copy.usage = usage;
+            copy.billables = billables;
+            return copy;
+        }
+    }
+
+    /*
+     * The contribution of a single billable, kept so it can be subtracted when replaced
+     */
+    private static class Contribution {
+        final Key key;
+        final String currency;
+        final long cost;
+        final long usage;
+
+        Contribution(Key key, String currency, long cost, long usage) {
+            this.key = key;
+            this.currency = currency;
+            this.cost = cost;
+            this.usage = usage;
+        }
+    }
+
+    private final Map<Key, Aggregate> cells = new HashMap<Key, Aggregate>();
+    private final Map<String, List<Contribution>> sources = new HashMap<String, List<Contribution>>();
+    // Per dimension, the number of applied billables that have each value
+    private final List<Map<String, Integer>> dimensionValues =
+            new ArrayList<Map<String, Integer>>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public CostRollupCube() {
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dimensionValues.add(new HashMap<String, Integer>());
+        }
+    }
+
+    /**
+     * Applies a metering sample for the passed in service instance, replacing any previous sample
+     * with the same scope and L1/L2 id.
+     *
+     * @param instance
+     *            the service instance the sample belongs to, its region and service group are used
+     *            as dimensions
+     * @param scope
+     *            the call the sample came from
+     * @param levelId
+     *            the L1/L2 id passed to Metering.getL1BillableUsage or getL2BillableUsage, null for
+     *            the INSTANCE scope
+     * @param entities
+     *            the entities of the sample
+     */
+    public void update(InstanceType instance, Scope scope, String levelId,
+            List<EntityType> entities) {
+        if (null == instance.getId() || null == scope) {
+            throw new IllegalArgumentException("A sample needs a service instance id and a scope");
+        }
+
+        List<Contribution> contributions = new ArrayList<Contribution>();
+
+        if (null != entities) {
+            for (EntityType entity : entities) {
+                BillableListType billableList = entity.getBillableList();
+                if (null == billableList) {
+                    continue;
+                }
+
+                for (BillableType billable : billableList.getBillable()) {
+                    Key key = Key.of(scope, known(instance.getRegion()),
+                            known(instance.getServiceGroupId()), instance.getId(),
+                            known(entity.getId()), known(billable.getUnit()));
+                    contributions.add(new Contribution(key, billable.getCurrency(),
+                            FixedPointCost.fromBigDecimal(billable.getCost()), FixedPointCost
+                                    .fromBigDecimal(billable.getUsage())));
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<Contribution> previous = sources.put(sourceKey(instance.getId(), scope, levelId),
+                    contributions);
+            if (null != previous) {
+                for (Contribution c : previous) {
+                    apply(c, -1);
+                }
+            }
+
+            for (Contribution c : contributions) {
+                apply(c, 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the sample previously applied for the passed in service instance, scope and L1/L2
+     * id.
+     */
+    public void remove(String serviceInstanceId, Scope scope, String levelId) {
+        lock.writeLock().lock();
+        try {
+            List<Contribution> previous = sources.remove(sourceKey(serviceInstanceId, scope,
+                    levelId));
+            if (null != previous) {
+                for (Contribution c : previous) {
+                    apply(c, -1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cell for the passed in key, or an empty Aggregate if nothing has
+     * been recorded for it.
+     */
+    public Aggregate query(Key key) {
+        lock.readLock().lock();
+        try {
+            Aggregate cell = cells.get(key);
+            return null != cell ? cell.copy() : new Aggregate();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cells of the passed in slice grouped by every known value of the
+     * passed in dimension, sorted by value. Groups without any billables are left out.
+     *
+     * @param dimension
+     *            the dimension to group by
+     * @param slice
+     *            the slice to group, its value for dimension is ignored
+     */
+    public Map<String, Aggregate> groupBy(Dimension dimension, Key slice) {
+        Map<String, Aggregate> groups = new TreeMap<String, Aggregate>();
+        lock.readLock().lock();
+        try {
+            for (String value : dimensionValues.get(dimension.ordinal()).keySet()) {
+                Aggregate cell = cells.get(slice.with(dimension, value));
+                if (null != cell && cell.getBillableCount() > 0) {
+                    groups.put(value, cell.copy());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return groups;
+    }
+
+    private void apply(Contribution c, int sign) {
+        for (int i = 0; i < DIMENSIONS; i++) {
+            Map<String, Integer> values = dimensionValues.get(i);
+            Integer count = values.get(c.key.values[i]);
+            int updated = (null != count ? count : 0) + sign;
+            if (updated > 0) {
+                values.put(c.key.values[i], updated);
+            } else {
+                values.remove(c.key.values[i]);
+            }
+        }
+
+        long cost = sign < 0 ? FixedPointCost.subtract(0, c.cost) : c.cost;
+        long usage = sign < 0 ? FixedPointCost.subtract(0, c.usage) : c.usage;
+
+        for (int mask = 0; mask < (1 << (DIMENSIONS - 1)); mask++) {
+            Key key = c.key.mask(mask);
+            Aggregate cell = cells.get(key);
+            if (null == cell) {
+                cell = new Aggregate();
+                cells.put(key, cell);
+            }
+
+            cell.add(c.currency, cost, usage, sign);
+            if (cell.getBillableCount() == 0) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    private static String known(String value) {
+        return null != value ? value : UNKNOWN;
+    }
+
+    private static String sourceKey(String serviceInstanceId, Scope scope, String levelId) {
+        return serviceInstanceId + "/" + scope + (null != levelId ? "/" + levelId : "");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.vmware.vchs.vms.billabledata.v5.BillableListType;
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+
+/**
+ * This class accumulates fixed-point (see FixedPointCost) cost totals per currency. An account is
+ * normally billed in one or two currencies, so the currencies are kept in a small array that is
+ * scanned on each add, which keeps the per row cost to a compare and an add. This class is not
+ * thread safe.
+ */
+public class CostTotals {
+    private String[] currencies = new String[4];
+    private long[] totals = new long[4];
+    private int size;
+
+    /**
+     * Adds the passed in fixed-point amount to the total for currency.
+     *
+     * @param currency
+     *            the currency code, e.g. USD
+     * @param amount
+     *            the fixed-point amount to add
+     */
+    public void add(String currency, long amount) {
+        int index = indexOf(currency);
+        if (index < 0) {
+            index = append(currency);
+        }
+
+        totals[index] = FixedPointCost.add(totals[index], amount);
+    }
+
+    /**
+     * Adds the cost of the passed in BillableType to the total for its currency.
+     *
+     * @param billable
+     *            the billable to add
+     */
+    public void add(BillableType billable) {
+        add(billable.getCurrency(), FixedPointCost.fromBigDecimal(billable.getCost()));
+    }
+
+    /**
+     * Adds the cost of every BillableType of the passed in entities.
+     *
+     * @param entities
+     *            the entities returned by a metering or billing usage call
+     */
+    public void addEntities(List<EntityType> entities) {
+        if (null != entities) {
+            for (EntityType entity : entities) {
+                BillableListType billableList = entity.getBillableList();
+                if (null != billableList) {
+                    for (BillableType billable : billableList.getBillable()) {
+                        add(billable);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds every total of the passed in CostTotals to this one.
+     *
+     * @param other
+     *            the totals to add
+     */
+    public void addAll(CostTotals other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.currencies[i], other.totals[i]);
+        }
+    }
+
+    /**
+     * Returns the fixed-point total for the passed in currency, or 0 if nothing was added for it.
+     */
+    public long get(String currency) {
+        int index = indexOf(currency);
+        return index < 0 ? 0 : totals[index];
+    }
+
+    /**
+     * Returns the number of currencies that have a total.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the currency at the passed in index, 0 <= index < size().
+     */
+    public String getCurrency(int index) {
+        return currencies[index];
+    }
+
+    /**
+     * Returns the fixed-point total at the passed in index, 0 <= index < size().
+     */
+    public long getTotal(int index) {
+        return totals[index];
+    }
+
+    private int indexOf(String currency) {
+        for (int i = 0; i < size; i++) {
+            String c = currencies[i];
+            if (c == currency || (null != c && c.equals(currency))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int append(String currency) {
+        if (size == currencies.length) {
+            currencies = Arrays.copyOf(currencies, size * 2);
+            totals = Arrays.copyOf(totals, size * 2);
+        }
+
+        currencies[size] = currency;
+        return size++;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * This class provides fixed-point arithmetic for the cost, rate and usage values returned by the
+ * metering and billing APIs. A value is held in a long scaled by 10^SCALE, so once a BillableType
+ * value has been converted, sums and comparisons never allocate and never go through BigDecimal.
+ * The streaming usage parser converts the Cost text with parse() and never creates a BigDecimal
+ * for it at all.
+ *
+ * Rounding rules: any value with more than SCALE fractional digits is rounded HALF_EVEN when it is
+ * converted. This is the same rule as BigDecimal.setScale(SCALE, RoundingMode.HALF_EVEN), so
+ * totals match a BigDecimal reference exactly. Every operation throws an ArithmeticException instead of silently wrapping
+ * when the result does not fit in a long.
+ */
+public final class FixedPointCost {
+    /*
+     * Number of fractional decimal digits kept for every value
+     */
+    public static final int SCALE = 9;
+
+    /*
+     * The fixed-point representation of 1
+     */
+    public static final long ONE = 1000000000L;
+
+    /*
+     * Prevent this class from being instantiated
+     */
+    private FixedPointCost() {
+    }
+
+    /**
+     * Converts the passed in BigDecimal (as returned by BillableType.getCost(), getRate() or
+     * getUsage()) to its fixed-point value. A null value converts to 0.
+     *
+     * @param value
+     *            the value to convert
+     * @return the fixed-point value
+     */
+    public static long fromBigDecimal(BigDecimal value) {
+        if (null == value) {
+            return 0;
+        }
+
+        BigInteger unscaled = value.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue();
+        if (unscaled.bitLength() > 63) {
+            throw new ArithmeticException("Value out of fixed-point range: " + value);
+        }
+
+        return unscaled.longValue();
+    }
+
+    /**
+     * Parses the passed in xs:decimal string (an optional sign, digits and an optional fraction) to
+     * its fixed-point value without allocating. A null or empty value parses to 0.
+     *
+     * @param s
+     *            the decimal string to parse
+     * @return the fixed-point value
+     */
+    public static long parse(CharSequence s) {
+        if (null == s) {
+            return 0;
+        }
+
+        int len = s.length();
+        int i = 0;
+
+        // xs:decimal allows surrounding whitespace
+        while (i < len && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        while (len > i && Character.isWhitespace(s.charAt(len - 1))) {
+            len--;
+        }
+
+        if (i == len) {
+            return 0;
+        }
+
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long magnitude = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean seenDigit = false;
+
+        // first dropped digit and whether anything non-zero follows it, for HALF_EVEN rounding
+        int roundDigit = -1;
+        boolean sticky = false;
+
+        for (; i < len; i++) {
+            c = s.charAt(i);
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+                continue;
+            }
+
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid decimal: " + s);
+            }
+
+            seenDigit = true;
+            int digit = c - '0';
+
+            if (seenPoint) {
+                if (fractionDigits == SCALE) {
+                    if (roundDigit < 0) {
+                        roundDigit = digit;
+                    } else if (digit != 0) {
+                        sticky = true;
+                    }
+                    continue;
+                }
+                fractionDigits++;
+            }
+
+            magnitude = addExact(multiplyExact(magnitude, 10), digit);
+        }
+
+        if (!seenDigit) {
+            throw new NumberFormatException("Invalid decimal: " + s);
+        }
+
+        for (; fractionDigits < SCALE; fractionDigits++) {
+            magnitude = multiplyExact(magnitude, 10);
+        }
+
+        if (roundDigit > 5 || (roundDigit == 5 && (sticky || (magnitude & 1) != 0))) {
+            magnitude = addExact(magnitude, 1);
+        }
+
+        return negative ? -magnitude : magnitude;
+    }
+
+    /**
+     * Converts the passed in fixed-point value back to a BigDecimal with a scale of SCALE.
+     *
+     * @param value
+     *            the fixed-point value
+     * @return the BigDecimal representation of value
+     */
+    public static BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, SCALE);
+    }
+
+    /**
+     * Formats the passed in fixed-point value as a plain decimal string, dropping trailing zeros of
+     * the fraction.
+     *
+     * @param value
+     *            the fixed-point value
+     * @return the decimal string
+     */
+    public static String toString(long value) {
+        return toBigDecimal(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Returns a + b.
+     *
+     * @throws ArithmeticException
+     *             if the result overflows
+     */
+    public static long add(long a, long b) {
+        return addExact(a, b);
+    }
+
+    /**
+     * Returns a - b.
+     *
+     * @throws ArithmeticException
+     *             if the result overflows
+     */
+    public static long subtract(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            throw new ArithmeticException("Fixed-point overflow");
+        }
+
+        return r;
+    }
+
+    /**
+     * Compares two fixed-point values.
+     *
+     * @return a negative number, zero or a positive number as a is less than, equal to or greater
+     *         than b
+     */
+    public static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static long addExact(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) {
+            throw new ArithmeticException("Fixed-point overflow");
+        }
+
+        return r;
+    }
+
+    private static long multiplyExact(long a, long b) {
+        long r = a * b;
+        long ax = a < 0 ? -a : a;
+        long ay = b < 0 ? -b : b;
+        if (((ax | ay) >>> 31) != 0) {
+            if ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                throw new ArithmeticException("Fixed-point overflow");
+            }
+        }
+
+        return r;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.vchs.api.samples.services.Metering;
+import com.vmware.vchs.vms.billabledata.v5.BillableUsageType;
+
+/**
+ * This class polls the Metering API for a set of targets on a schedule. Each target (a service
+ * instance, or one of its L1s or L2s) has its own interval, the first poll of a target is spread
+ * randomly over its interval and every following poll is jittered, so hundreds of targets never
+ * fire in lockstep. Polls are run on a fixed pool of maxInFlight threads, which is the global
+ * budget of concurrent metering calls, and a target is skipped for a round while its previous
+ * poll is still queued or running so a slow API can not build up a backlog.
+ */
+public class MeteringCollector {
+    /**
+     * The metering call a target is polled with.
+     */
+    public enum Level {
+        /*
+         * Metering.getBillableUsage for the whole service instance
+         */
+        INSTANCE,
+
+        /*
+         * Metering.getL1BillableUsage
+         */
+        L1,
+
+        /*
+         * Metering.getL2BillableUsage
+         */
+        L2
+    }
+
+    /**
+     * A single target to poll.
+     */
+    public static class Target {
+        private final String serviceInstanceId;
+        private final Level level;
+        private final String levelId;
+        private final long intervalMillis;
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        /**
+         * @param serviceInstanceId
+         *            the service instance id
+         * @param level
+         *            the metering call to poll with
+         * @param levelId
+         *            the L1 or L2 id, required for Level.L1 and Level.L2, ignored for
+         *            Level.INSTANCE
+         * @param intervalMillis
+         *            the average time between two polls, must be positive
+         */
+        public Target(String serviceInstanceId, Level level, String levelId, long intervalMillis) {
+            if (null == serviceInstanceId || null == level) {
+                throw new IllegalArgumentException("A target needs a service instance id and a"
+                        + " level");
+            }
+
+            if (level != Level.INSTANCE && (null == levelId || levelId.length() == 0)) {
+                throw new IllegalArgumentException("A " + level + " target needs an " + level
+                        + " id");
+            }
+
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("The interval must be positive: "
+                        + intervalMillis);
+            }
+
+            this.serviceInstanceId = serviceInstanceId;
+            this.level = level;
+            this.levelId = level == Level.INSTANCE ? null : levelId;
+            this.intervalMillis = intervalMillis;
+        }
+
+        public String getServiceInstanceId() {
+            return serviceInstanceId;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns the L1 or L2 id, null for Level.INSTANCE.
+         */
+        public String getLevelId() {
+            return levelId;
+        }
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        @Override
+        public String toString() {
+            return null == levelId ? serviceInstanceId : serviceInstanceId + "/"
+                    + level.name().toLowerCase() + "/" + levelId;
+        }
+    }
+
+    /**
+     * Receives the result of every poll. Called from the poll threads, so implementations must be
+     * thread safe.
+     */
+    public interface Listener {
+        /**
+         * Called with the usage returned for target.
+         */
+        void onSample(Target target, BillableUsageType usage, long elapsedMillis);
+
+        /**
+         * Called when the poll of target returned nothing or failed, cause may be null.
+         */
+        void onFailure(Target target, Throwable cause);
+    }
+
+    /*
+     * The fraction of the interval a poll may be moved by, 0.2 means +/- 10%
+     */
+    private static final double JITTER = 0.2;
+
+    private final String url;
+    private final String version;
+    private final Listener listener;
+    private final List<Target> targets = Collections.synchronizedList(new ArrayList<Target>());
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final Random random = new Random();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean started;
+    private volatile String authToken;
+
+    /**
+     * Creates a collector; no poll is made until start() is called.
+     *
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token, can be replaced later with setAuthToken()
+     * @param version
+     *            version of the API to invoke
+     * @param maxInFlight
+     *            the maximum number of concurrent metering calls
+     * @param listener
+     *            receives every poll result
+     */
+    public MeteringCollector(String url, String authToken, String version, int maxInFlight,
+            Listener listener) {
+        this.url = url;
+        this.authToken = authToken;
+        this.version = version;
+        this.listener = listener;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("metering-scheduler"));
+        this.workers = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreads("metering-poll"));
+    }
+
+    /**
+     * Adds a target. Targets added after start() are scheduled immediately.
+     */
+    public void addTarget(Target target) {
+        synchronized (targets) {
+            targets.add(target);
+            if (started) {
+                scheduleFirst(target);
+            }
+        }
+    }
+
+    /**
+     * Starts polling every target added so far.
+     */
+    public void start() {
+        synchronized (targets) {
+            started = true;
+            for (Target target : targets) {
+                scheduleFirst(target);
+            }
+        }
+    }
+
+    /**
+     * Replaces the OAUTH token used for the following polls, e.g. after logging in again.
+     */
+    public void setAuthToken(String authToken) {
+        this.authToken = authToken;
+    }
+
+    /**
+     * Returns the number of metering calls currently running.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns a copy of the current targets.
+     */
+    public List<Target> getTargets() {
+        synchronized (targets) {
+            return new ArrayList<Target>(targets);
+        }
+    }
+
+    /**
+     * Stops scheduling polls and waits up to timeout for running polls to finish.
+     */
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        scheduler.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(timeout, unit);
+    }
+
+    private void scheduleFirst(Target target) {
+        // Spread the first poll of each target over its interval
+        schedule(target, (long) (random.nextDouble() * target.getIntervalMillis()));
+    }
+
+    private void schedule(final Target target, long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                // Skip this round if the previous poll has not finished yet
+                if (target.pending.compareAndSet(false, true)) {
+                    workers.execute(new Runnable() {
+                        public void run() {
+                            poll(target);
+                        }
+                    });
+                }
+
+                schedule(target, jittered(target.getIntervalMillis()));
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(Target target) {
+        inFlight.incrementAndGet();
+        long start = System.currentTimeMillis();
+
+        try {
+            BillableUsageType usage;
+            switch (target.getLevel()) {
+            case L1:
+                usage = Metering.getL1BillableUsage(url, authToken, version,
+                        target.getServiceInstanceId(), target.getLevelId());
+                break;
+            case L2:
+                usage = Metering.getL2BillableUsage(url, authToken, version,
+                        target.getServiceInstanceId(), target.getLevelId());
+                break;
+            default:
+                usage = Metering.getBillableUsage(url, authToken, version,
+                        target.getServiceInstanceId());
+                break;
+            }
+
+            if (null != usage) {
+                listener.onSample(target, usage, System.currentTimeMillis() - start);
+            } else {
+                listener.onFailure(target, null);
+            }
+        } catch (RuntimeException e) {
+            listener.onFailure(target, e);
+        } finally {
+            inFlight.decrementAndGet();
+            target.pending.set(false);
+        }
+    }
+
+    private long jittered(long intervalMillis) {
+        double factor = 1.0 - JITTER / 2 + random.nextDouble() * JITTER;
+        return Math.max(1, (long) (intervalMillis * factor));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.cost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.vmware.vchs.api.samples.services.helper.UsageVisitor;
+import com.vmware.vchs.vms.billabledata.v5.BillableListType;
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+
+/**
+ * This class keeps the K most expensive entities (or billables) seen across any number of metering
+ * or billing usage responses. Costs in different currencies can not be compared, so entries are
+ * ranked per currency: it holds a min-heap of at most K entries for every currency, so the
+ * cheapest retained entry is always at the head and anything that costs no more than it is
+ * rejected before an entry is even created. An entity billed in more than one currency is ranked
+ * in each of them with the total of its billables in that currency. Usage responses can therefore
+ * be fed in one at a time and dropped, and the memory used stays proportional to K times the number
+ * of currencies no matter how many instances are scanned. This class is not thread safe.
+ */
+public class TopKCostTracker {
+    /**
+     * What is ranked by the tracker.
+     */
+    public enum Mode {
+        /*
+         * Rank entities (e.g. a VM) by the sum of the cost of all their billables in a currency
+         */
+        ENTITY,
+
+        /*
+         * Rank every billable line on its own
+         */
+        BILLABLE
+    }
+
+    /**
+     * A single retained result.
+     */
+    public static class Entry {
+        private final String serviceInstanceId;
+        private final String entityId;
+        private final String entityName;
+        private final String entityType;
+        private final String billableName;
+        private final String currency;
+        private final long cost;
+
+        Entry(String serviceInstanceId, EntityType entity, String billableName, String currency,
+                long cost) {
+            this.serviceInstanceId = serviceInstanceId;
+            this.entityId = entity.getId();
+            this.entityName = entity.getName();
+            this.entityType = entity.getEntityType();
+            this.billableName = billableName;
+            this.currency = currency;
+            this.cost = cost;
+        }
+
+        public String getServiceInstanceId() {
+            return serviceInstanceId;
+        }
+
+        public String getEntityId() {
+            return entityId;
+        }
+
+        public String getEntityName() {
+            return entityName;
+        }
+
+        public String getEntityType() {
+            return entityType;
+        }
+
+        /**
+         * Returns the billable name, or null when ranking by entity.
+         */
+        public String getBillableName() {
+            return billableName;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        /**
+         * Returns the fixed-point cost (see FixedPointCost).
+         */
+        public long getCost() {
+            return cost;
+        }
+    }
+
+    private static final Comparator<Entry> ASCENDING = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            return FixedPointCost.compare(a.cost, b.cost);
+        }
+    };
+
+    // Orders by currency, without a currency last, then most expensive first
+    private static final Comparator<Entry> BY_CURRENCY = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            if (null == a.currency ? null != b.currency : !a.currency.equals(b.currency)) {
+                if (null == a.currency) {
+                    return 1;
+                }
+
+                return null == b.currency ? -1 : a.currency.compareTo(b.currency);
+            }
+
+            return ASCENDING.compare(b, a);
+        }
+    };
+
+    private final int k;
+    private final Mode mode;
+    private final Map<String, PriorityQueue<Entry>> heaps =
+            new HashMap<String, PriorityQueue<Entry>>();
+
+    /**
+     * Creates a tracker that retains at most k results.
+     *
+     * @param k
+     *            the number of results to retain, must be greater than 0
+     * @param mode
+     *            whether entities or individual billables are ranked
+     */
+    public TopKCostTracker(int k, Mode mode) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be greater than 0");
+        }
+
+        this.k = k;
+        this.mode = mode;
+    }
+
+    /**
+     * Offers every entity of a metering or billing usage response.
+     *
+     * @param serviceInstanceId
+     *            the service instance the usage belongs to
+     * @param entities
+     *            the entities of the usage response
+     */
+    public void offerAll(String serviceInstanceId, List<EntityType> entities) {
+        if (null != entities) {
+            for (EntityType entity : entities) {
+                offer(serviceInstanceId, entity);
+            }
+        }
+    }
+
+    /**
+     * Offers a single entity. Depending on the mode, the entity is ranked on its total cost in
+     * each of its currencies or each of its billables is ranked individually.
+     *
+     * @param serviceInstanceId
+     *            the service instance the entity belongs to
+     * @param entity
+     *            the entity to offer
+     */
+    public void offer(String serviceInstanceId, EntityType entity) {
+        BillableListType billableList = entity.getBillableList();
+        if (null == billableList) {
+            return;
+        }
+
+        if (mode == Mode.BILLABLE) {
+            for (BillableType billable : billableList.getBillable()) {
+                offer(serviceInstanceId, entity, billable.getName(), billable.getCurrency(),
+                        FixedPointCost.fromBigDecimal(billable.getCost()));
+            }
+        } else {
+            CostTotals totals = new CostTotals();
+            for (BillableType billable : billableList.getBillable()) {
+                totals.add(billable);
+            }
+
+            offer(serviceInstanceId, entity, totals);
+        }
+    }
+
+    /**
+     * Returns a visitor that offers the entities of a streamed usage response (see
+     * UsageStreamParser), so the response never has to be built in memory. In entity mode the
+     * entity is offered once all its billables have been visited.
+     *
+     * @param serviceInstanceId
+     *            the service instance the usage belongs to
+     * @return the visitor to pass to one of the Billing or Metering visit calls
+     */
+    public UsageVisitor visitor(final String serviceInstanceId) {
+        return new UsageVisitor() {
+            private CostTotals totals = new CostTotals();
+
+            public void visitEntity(EntityType entity) {
+                totals = new CostTotals();
+            }
+
+            public void visitBillable(EntityType entity, BillableType billable, long cost) {
+                if (mode == Mode.BILLABLE) {
+                    offer(serviceInstanceId, entity, billable.getName(), billable.getCurrency(),
+                            cost);
+                } else {
+                    totals.add(billable.getCurrency(), cost);
+                }
+            }
+
+            public void endEntity(EntityType entity) {
+                if (mode == Mode.ENTITY) {
+                    offer(serviceInstanceId, entity, totals);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns true if an offer with the passed in currency and fixed-point cost would currently be
+     * retained.
+     */
+    public boolean accepts(String currency, long cost) {
+        PriorityQueue<Entry> heap = heaps.get(currency);
+        return null == heap || heap.size() < k
+                || FixedPointCost.compare(cost, heap.peek().cost) > 0;
+    }
+
+    /**
+     * Returns the retained results of every currency, ordered by currency and most expensive first
+     * within a currency.
+     */
+    public List<Entry> getResults() {
+        List<Entry> results = new ArrayList<Entry>();
+        for (PriorityQueue<Entry> heap : heaps.values()) {
+            results.addAll(heap);
+        }
+
+        Collections.sort(results, BY_CURRENCY);
+        return results;
+    }
+
+    /**
+     * Returns the retained results in the passed in currency, most expensive first.
+     */
+    public List<Entry> getResults(String currency) {
+        PriorityQueue<Entry> heap = heaps.get(currency);
+        if (null == heap) {
+            return new ArrayList<Entry>();
+        }
+
+        List<Entry> results = new ArrayList<Entry>(heap);
+        Collections.sort(results, Collections.reverseOrder(ASCENDING));
+        return results;
+    }
+
+    private void offer(String serviceInstanceId, EntityType entity, CostTotals totals) {
+        for (int i = 0; i < totals.size(); i++) {
+            offer(serviceInstanceId, entity, null, totals.getCurrency(i), totals.getTotal(i));
+        }
+    }
+
+    private void offer(String serviceInstanceId, EntityType entity, String billableName,
+            String currency, long cost) {
+        if (!accepts(currency, cost)) {
+            return;
+        }
+
+        PriorityQueue<Entry> heap = heaps.get(currency);
+        if (null == heap) {
+            heap = new PriorityQueue<Entry>(k, ASCENDING);
+            heaps.put(currency, heap);
+        } else if (heap.size() == k) {
+            heap.poll();
+        }
+
+        heap.add(new Entry(serviceInstanceId, entity, billableName, currency, cost));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.protocol.BasicHttpContext;
+
+/**
+ * This class sends requests with the Apache HttpClient over HTTP/1.1, trusting all certificates.
+ * Without a pool every call gets a new HttpClient and connection, as the samples always did. With
+ * a pool one thread safe HttpClient keeps up to maxConnections connections open, so concurrent
+ * callers reuse connections instead of paying a TCP and TLS handshake on every call.
+ */
+public class ApacheTransport implements HttpTransport {
+    // Shared thread safe client and its pool, null when every call gets its own
+    private final HttpClient pooledClient;
+    private final PoolingClientConnectionManager pool;
+
+    /**
+     * Creates a transport that uses a new HttpClient for every call.
+     */
+    public ApacheTransport() {
+        this.pooledClient = null;
+        this.pool = null;
+    }
+
+    /**
+     * Creates a transport that keeps a pool of connections.
+     *
+     * @param maxConnections
+     *            the maximum number of pooled connections, per host and in total
+     */
+    public ApacheTransport(int maxConnections) {
+        PoolingClientConnectionManager ccm = new PoolingClientConnectionManager(
+                HttpUtils.createTrustingSchemeRegistry(), HttpUtils.getDnsResolver());
+        ccm.setMaxTotal(maxConnections);
+        ccm.setDefaultMaxPerRoute(maxConnections);
+
+        this.pooledClient = new DefaultHttpClient(ccm);
+        this.pool = ccm;
+    }
+
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        HttpClient httpClient = pooledClient;
+        if (null == httpClient) {
+            // Create a fresh HttpClient.. some samples will make calls to two (or more)
+            // urls in a single run, sharing a static non-multithreaded instance causes
+            // exceptions. This prevents that by ensuring each call gets its own instance.
+            httpClient = HttpUtils.createTrustingHttpClient();
+        }
+
+        return httpClient.execute(request);
+    }
+
+    /**
+     * Opens connectionsPerHost pooled connections to the host of every passed in url, including
+     * the TLS handshake, so the first calls to them reuse a warm connection. Hosts are warmed up in
+     * parallel, and hosts that already have open connections in the pool are only topped up.
+     * Without a pool there is nothing to keep the connections in, so only the host names are
+     * resolved into the DNS cache.
+     *
+     * @param urls
+     *            the urls whose hosts to connect to, only scheme, host and port are used
+     * @param connectionsPerHost
+     *            the number of connections to have open per host, capped by the pool size
+     * @param timeoutMillis
+     *            how long to wait for all hosts
+     * @return the number of connections opened
+     */
+    public int warmUp(Collection<URI> urls, int connectionsPerHost, long timeoutMillis) {
+        if (null == pool) {
+            for (URI url : urls) {
+                try {
+                    if (null != url.getHost()) {
+                        HttpUtils.getDnsResolver().resolve(url.getHost());
+                    }
+                } catch (UnknownHostException e) {
+                    // Reported by the first call to the host
+                }
+            }
+
+            return 0;
+        }
+
+        Set<HttpRoute> routes = new LinkedHashSet<HttpRoute>();
+        for (URI url : urls) {
+            HttpRoute route = routeOf(url);
+            if (null != route) {
+                routes.add(route);
+            }
+        }
+
+        if (routes.isEmpty()) {
+            return 0;
+        }
+
+        final int count = Math.min(connectionsPerHost, pool.getDefaultMaxPerRoute());
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ExecutorService executor = Executors.newFixedThreadPool(routes.size());
+        try {
+            List<Future<Integer>> opened = new ArrayList<Future<Integer>>();
+            for (final HttpRoute route : routes) {
+                opened.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return open(route, count, deadline);
+                    }
+                }));
+            }
+
+            int total = 0;
+            for (Future<Integer> future : opened) {
+                try {
+                    total += future.get(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    // Reported by the first call to the host
+                } catch (TimeoutException e) {
+                    break;
+                }
+            }
+
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Leases count connections of the route at once, so the pool cannot hand back the same one,
+     * opens those that are not open yet and returns them all to the pool
+     */
+    private int open(HttpRoute route, int count, long deadline) throws IOException,
+            InterruptedException {
+        List<ManagedClientConnection> leased = new ArrayList<ManagedClientConnection>(count);
+        int opened = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                ManagedClientConnection conn = pool.requestConnection(route, null)
+                        .getConnection(Math.max(1, deadline - System.nanoTime()),
+                                TimeUnit.NANOSECONDS);
+                leased.add(conn);
+
+                if (!conn.isOpen()) {
+                    conn.open(route, new BasicHttpContext(), pooledClient.getParams());
+                    opened++;
+                }
+
+                conn.markReusable();
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            // The pool is busy, the connections leased so far will do
+        } finally {
+            for (ManagedClientConnection conn : leased) {
+                pool.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return opened;
+    }
+
+    /*
+     * Returns the route the client picks for a direct call to the url, with the default port of
+     * its scheme filled in
+     */
+    private HttpRoute routeOf(URI url) {
+        if (null == url.getHost() || null == url.getScheme()) {
+            return null;
+        }
+
+        Scheme scheme = pool.getSchemeRegistry().get(url.getScheme());
+        if (null == scheme) {
+            return null;
+        }
+
+        HttpHost target = new HttpHost(url.getHost(), scheme.resolvePort(url.getPort()),
+                scheme.getName());
+        return new HttpRoute(target, null, scheme.isLayered());
+    }
+
+    public void shutdown() {
+        if (null != pooledClient) {
+            pooledClient.getConnectionManager().shutdown();
+        }
+    }
+}
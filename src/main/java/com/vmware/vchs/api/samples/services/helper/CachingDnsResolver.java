@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+
+/**
+ * This class resolves host names for the HttpClient connection managers and keeps each answer for
+ * ttlMillis, so the service controller, IAM and compute hosts of a run are looked up once per TTL
+ * instead of on every new connection. Failed lookups are not cached. The default TTL of 60
+ * seconds is short enough to follow a region moving to new addresses. This class is thread safe.
+ */
+public class CachingDnsResolver implements DnsResolver {
+    /*
+     * The addresses of one host and when they expire
+     */
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long expiresNanos;
+
+        Entry(InetAddress[] addresses, long expiresNanos) {
+            this.addresses = addresses;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final long ttlNanos;
+
+    /**
+     * Creates a resolver that keeps answers for 60 seconds.
+     */
+    public CachingDnsResolver() {
+        this(60000);
+    }
+
+    /**
+     * @param ttlMillis
+     *            how long an answer is used before the host is looked up again
+     */
+    public CachingDnsResolver(long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        String key = host.toLowerCase();
+        Entry entry = entries.get(key);
+        if (null == entry || System.nanoTime() - entry.expiresNanos >= 0) {
+            // Two threads may look up the same host at once, the later answer wins
+            entry = new Entry(InetAddress.getAllByName(host), System.nanoTime() + ttlNanos);
+            entries.put(key, entry);
+        }
+
+        return entry.addresses.clone();
+    }
+
+    /**
+     * Forgets every cached answer.
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
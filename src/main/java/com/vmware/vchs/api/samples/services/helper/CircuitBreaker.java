@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps one circuit per host and endpoint template, e.g.
+ * "vchs.vmware.com GET /api/sc/instances/{id}", where every path segment containing a digit is
+ * replaced by {id}. A closed circuit lets calls through and records the outcome of the last
+ * windowSize of them. Once at least minimumCalls are recorded and the share of failed calls (an
+ * IOException or a 5xx response) or of calls slower than slowCallMillis reaches its threshold, the
+ * circuit opens: for openMillis every call to the endpoint fails right away with an
+ * OpenException, without touching the network. After that the circuit is half open and lets
+ * halfOpenCalls probe calls through. If all of them succeed in time it closes, otherwise it opens
+ * again.
+ *
+ * getStats() reports the state and the counters of every circuit. This class is thread safe.
+ */
+public class CircuitBreaker {
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of making a call while its circuit is open. It is an IOException so callers
+     * handle it like any other transport failure.
+     */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String key) {
+            super("Circuit open for " + key);
+        }
+    }
+
+    /**
+     * Receives the state changes of all circuits. Called on the thread that recorded the call.
+     */
+    public interface Listener {
+        void onStateChange(String key, State from, State to);
+    }
+
+    /**
+     * The state and counters of one circuit at the time of getStats().
+     */
+    public static class Stats {
+        private final String key;
+        private final State state;
+        private final int windowCalls;
+        private final double failureRate;
+        private final double slowCallRate;
+        private final long rejected;
+        private final long opened;
+
+        Stats(String key, State state, int windowCalls, double failureRate, double slowCallRate,
+                long rejected, long opened) {
+            this.key = key;
+            this.state = state;
+            this.windowCalls = windowCalls;
+            this.failureRate = failureRate;
+            this.slowCallRate = slowCallRate;
+            this.rejected = rejected;
+            this.opened = opened;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns the number of calls in the window, up to windowSize.
+         */
+        public int getWindowCalls() {
+            return windowCalls;
+        }
+
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        public double getSlowCallRate() {
+            return slowCallRate;
+        }
+
+        /**
+         * Returns the number of calls failed fast since the circuit was created.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Returns the number of times the circuit opened since it was created.
+         */
+        public long getOpened() {
+            return opened;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s %s calls=%d failures=%.0f%% slow=%.0f%% rejected=%d opened=%d", key, state,
+                    windowCalls, failureRate * 100, slowCallRate * 100, rejected, opened);
+        }
+    }
+
+    /*
+     * One circuit, guarded by its own monitor
+     */
+    private class Circuit {
+        final String key;
+        // Ring of the last windowSize outcomes: 1 failed, 2 slow, 3 both
+        final byte[] outcomes = new byte[windowSize];
+        int next;
+        int calls;
+        int failures;
+        int slowCalls;
+        State state = State.CLOSED;
+        long openUntilNanos;
+        int probesStarted;
+        int probesSucceeded;
+        long rejected;
+        long opened;
+
+        Circuit(String key) {
+            this.key = key;
+        }
+
+        synchronized boolean allow() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    rejected++;
+                    return false;
+                }
+
+                transition(State.HALF_OPEN);
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (probesStarted >= halfOpenCalls) {
+                    rejected++;
+                    return false;
+                }
+
+                probesStarted++;
+            }
+
+            return true;
+        }
+
+        synchronized void record(boolean failed, boolean slow) {
+            if (state == State.HALF_OPEN) {
+                if (failed || slow) {
+                    open();
+                } else if (++probesSucceeded >= halfOpenCalls) {
+                    clear();
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+
+            if (state == State.OPEN) {
+                // A call started before the circuit opened
+                return;
+            }
+
+            if (calls == windowSize) {
+                byte oldest = outcomes[next];
+                failures -= oldest & 1;
+                slowCalls -= (oldest >> 1) & 1;
+            } else {
+                calls++;
+            }
+
+            outcomes[next] = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+            next = (next + 1) % windowSize;
+            failures += failed ? 1 : 0;
+            slowCalls += slow ? 1 : 0;
+
+            if (calls >= minimumCalls
+                    && (failures >= failureRateThreshold * calls
+                            || slowCalls >= slowCallRateThreshold * calls)) {
+                open();
+            }
+        }
+
+        synchronized void cancel() {
+            if (state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+                probesStarted--;
+            }
+        }
+
+        synchronized Stats stats() {
+            return new Stats(key, state, calls, calls == 0 ? 0 : (double) failures / calls,
+                    calls == 0 ? 0 : (double) slowCalls / calls, rejected, opened);
+        }
+
+        private void open() {
+            openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openMillis);
+            opened++;
+            clear();
+            transition(State.OPEN);
+        }
+
+        private void clear() {
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+
+        private void transition(State to) {
+            State from = state;
+            state = to;
+            if (null != listener && from != to) {
+                listener.onStateChange(key, from, to);
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, Circuit> circuits =
+            new ConcurrentHashMap<String, Circuit>();
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallMillis;
+    private final double slowCallRateThreshold;
+    private final long openMillis;
+    private final int halfOpenCalls;
+    private volatile Listener listener;
+
+    /**
+     * Creates a breaker that opens a circuit for 30 seconds when at least half of the last 20
+     * calls failed, or 80% of them took more than 10 seconds, with at least 10 calls recorded, and
+     * probes with 3 calls.
+     */
+    public CircuitBreaker() {
+        this(20, 10, 0.5, 10000, 0.8, 30000, 3);
+    }
+
+    /**
+     * @param windowSize
+     *            the number of most recent calls the rates are computed over
+     * @param minimumCalls
+     *            the number of calls a circuit needs to record before it can open
+     * @param failureRateThreshold
+     *            the share of failed calls that opens a circuit, between 0 and 1
+     * @param slowCallMillis
+     *            the latency above which a call counts as slow
+     * @param slowCallRateThreshold
+     *            the share of slow calls that opens a circuit, between 0 and 1
+     * @param openMillis
+     *            how long an open circuit fails calls before it lets probes through
+     * @param halfOpenCalls
+     *            the number of probe calls that must succeed to close a circuit
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+            long slowCallMillis, double slowCallRateThreshold, long openMillis, int halfOpenCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException(
+                    "windowSize, minimumCalls and halfOpenCalls must be at least 1 and minimumCalls"
+                            + " at most windowSize");
+        }
+
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Sets the listener notified of state changes, null for none.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the circuit key of a request: its host, method and endpoint template.
+     */
+    public static String keyOf(String method, URI uri) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(uri.getHost()).append(' ').append(method).append(' ');
+
+        String path = uri.getRawPath();
+        if (null == path || path.length() == 0) {
+            return sb.append('/').toString();
+        }
+
+        for (String segment : path.split("/")) {
+            if (segment.length() == 0) {
+                continue;
+            }
+
+            sb.append('/');
+            boolean id = false;
+            for (int i = 0; i < segment.length() && !id; i++) {
+                id = Character.isDigit(segment.charAt(i));
+            }
+
+            sb.append(id ? "{id}" : segment);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if a call to the circuit with the passed in key may be made. Every call allowed
+     * must be followed by one record() for the same key.
+     */
+    public boolean allow(String key) {
+        return getCircuit(key).allow();
+    }
+
+    /**
+     * Records the outcome of an allowed call.
+     *
+     * @param key
+     *            the key passed to allow()
+     * @param latencyNanos
+     *            the time the call took
+     * @param status
+     *            the response status, or -1 if the call threw an IOException
+     */
+    public void record(String key, long latencyNanos, int status) {
+        boolean failed = status < 0 || status >= 500;
+        boolean slow = latencyNanos > TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        getCircuit(key).record(failed, slow);
+    }
+
+    /**
+     * Ends an allowed call that was not made after all, e.g. because the caller was interrupted.
+     */
+    public void cancel(String key) {
+        getCircuit(key).cancel();
+    }
+
+    /**
+     * Returns the state of the circuit with the passed in key.
+     */
+    public State getState(String key) {
+        return getCircuit(key).stats().getState();
+    }
+
+    /**
+     * Returns the state and counters of every circuit, sorted by key.
+     */
+    public List<Stats> getStats() {
+        Map<String, Circuit> sorted = new TreeMap<String, Circuit>(circuits);
+        List<Stats> stats = new ArrayList<Stats>(sorted.size());
+        for (Circuit circuit : sorted.values()) {
+            stats.add(circuit.stats());
+        }
+
+        return stats;
+    }
+
+    private Circuit getCircuit(String key) {
+        Circuit circuit = circuits.get(key);
+        if (null == circuit) {
+            Circuit created = new Circuit(key);
+            circuit = circuits.putIfAbsent(key, created);
+            if (null == circuit) {
+                circuit = created;
+            }
+        }
+
+        return circuit;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class limits the number of calls in flight to each host and adapts the limit to what the
+ * host can take, using additive increase and multiplicative decrease (AIMD). Every call that
+ * completes normally while the limit is being used raises the limit of its host by 1/limit, i.e.
+ * by about one per limit calls. A 429 or 503 response, an IOException, or a latency of more than
+ * latencyTolerance times the host's usual latency cuts the limit by backoffRatio, at most once per
+ * usual latency so one burst of failures counts as one signal.
+ *
+ * Calls over the limit wait in arrival order. The usual latency is a slow moving average of the
+ * latencies that were not cut, so a spike is measured against the latency before it. Hosts are
+ * tracked separately, so throttling by a compute API does not slow down calls to vchs.vmware.com.
+ * This class is thread safe.
+ */
+public class ConcurrencyLimiter {
+    /*
+     * The limit and the calls in flight of one host
+     */
+    private class HostLimit {
+        // Fair, so waiting callers are served in arrival order
+        final ReentrantLock lock = new ReentrantLock(true);
+        final Condition available = lock.newCondition();
+        double limit = initialLimit;
+        int inFlight;
+        long usualLatencyNanos;
+        long lastDecreaseNanos;
+
+        void acquire() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (inFlight >= (int) limit) {
+                    available.await();
+                }
+
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                inFlight--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long latencyNanos, boolean overloaded) {
+            lock.lock();
+            try {
+                boolean used = inFlight >= limit / 2;
+                inFlight--;
+
+                long now = System.nanoTime();
+                boolean spike = usualLatencyNanos > 0
+                        && latencyNanos > latencyTolerance * usualLatencyNanos;
+
+                if (overloaded || spike) {
+                    if (now - lastDecreaseNanos >= usualLatencyNanos) {
+                        limit = Math.max(minLimit, limit * backoffRatio);
+                        lastDecreaseNanos = now;
+                    }
+                } else {
+                    usualLatencyNanos = 0 == usualLatencyNanos ? latencyNanos
+                            : (long) (usualLatencyNanos * 0.95 + latencyNanos * 0.05);
+
+                    if (used) {
+                        int before = (int) limit;
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                        if ((int) limit > before) {
+                            // Room for one more than the slot freed by this call
+                            available.signal();
+                        }
+                    }
+                }
+
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, HostLimit> hosts =
+            new ConcurrentHashMap<String, HostLimit>();
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    /**
+     * Creates a limiter that starts each host at half of maxLimit and cuts the limit in half on
+     * overload or when latency doubles.
+     *
+     * @param maxLimit
+     *            the highest limit a host can reach
+     */
+    public ConcurrencyLimiter(int maxLimit) {
+        this(Math.max(1, maxLimit / 2), 1, maxLimit, 0.5, 2.0);
+    }
+
+    /**
+     * @param initialLimit
+     *            the limit of a host before any of its calls completed
+     * @param minLimit
+     *            the lowest limit a host can be cut to, at least 1
+     * @param maxLimit
+     *            the highest limit a host can reach
+     * @param backoffRatio
+     *            the factor the limit is multiplied with on overload, between 0 and 1
+     * @param latencyTolerance
+     *            how many times the usual latency a call may take before it counts as overload
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+            double latencyTolerance) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Blocks until a call to the passed in host may start. Every acquire() must be followed by
+     * exactly one release() for the same host.
+     */
+    public void acquire(String host) throws InterruptedException {
+        getHost(host).acquire();
+    }
+
+    /**
+     * Ends a call started with acquire() and adapts the limit of its host.
+     *
+     * @param host
+     *            the host passed to acquire()
+     * @param latencyNanos
+     *            the time the call took
+     * @param status
+     *            the response status, -1 if the call threw an IOException, or 0 if it was aborted
+     *            by the caller, which frees the slot without adapting the limit
+     */
+    public void release(String host, long latencyNanos, int status) {
+        if (0 == status) {
+            getHost(host).cancel();
+            return;
+        }
+
+        boolean overloaded = status < 0 || status == 429 || status == 503;
+        getHost(host).release(latencyNanos, overloaded);
+    }
+
+    /**
+     * Returns the current limit of the passed in host.
+     */
+    public int getLimit(String host) {
+        HostLimit hostLimit = getHost(host);
+        hostLimit.lock.lock();
+        try {
+            return (int) hostLimit.limit;
+        } finally {
+            hostLimit.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls in flight to the passed in host.
+     */
+    public int getInFlight(String host) {
+        HostLimit hostLimit = getHost(host);
+        hostLimit.lock.lock();
+        try {
+            return hostLimit.inFlight;
+        } finally {
+            hostLimit.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the usual latency of the passed in host in milliseconds, 0 before its first call.
+     */
+    public long getUsualLatencyMillis(String host) {
+        HostLimit hostLimit = getHost(host);
+        hostLimit.lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(hostLimit.usualLatencyNanos);
+        } finally {
+            hostLimit.lock.unlock();
+        }
+    }
+
+    private HostLimit getHost(String host) {
+        String key = String.valueOf(host).toLowerCase();
+        HostLimit hostLimit = hosts.get(key);
+        if (null == hostLimit) {
+            HostLimit created = new HostLimit();
+            hostLimit = hosts.putIfAbsent(key, created);
+            if (null == hostLimit) {
+                hostLimit = created;
+            }
+        }
+
+        return hostLimit;
+    }
+}
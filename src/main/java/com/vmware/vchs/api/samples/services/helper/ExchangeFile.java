@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vmware.vchs.api.samples.SampleConstants;
+
+/**
+ * This class saves the exchanges of a RecordReplayTransport to a gzipped JSON file and loads them
+ * back, so a run recorded against vCHS can be replayed offline. XML, JSON and text bodies are
+ * stored as text, other bodies base64 encoded. Framing headers such as Content-Length are
+ * dropped, the body is complete.
+ *
+ * Secrets are redacted when the file is written: the values of the auth token and cookie headers,
+ * and every match of the redacted patterns in urls and text bodies, by default password fields
+ * and token or password query parameters. A pattern's first group is replaced by REDACTED, or the
+ * whole match if it has no group. Replayed calls still get a token header, so the samples run
+ * through the same code as with the real one.
+ */
+public class ExchangeFile {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String REDACTED = "REDACTED";
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final Set<String> redactedHeaders = new HashSet<String>();
+    private final List<Pattern> redactedPatterns = new ArrayList<Pattern>();
+
+    /**
+     * @param file
+     *            the file to write or read, conventionally named *.json.gz
+     */
+    public ExchangeFile(File file) {
+        this.file = file;
+
+        redactHeader("Authorization");
+        redactHeader(SampleConstants.VCHS_AUTHORIZATION_HEADER);
+        redactHeader(SampleConstants.VCD_AUTHORIZATION_HEADER);
+        redactHeader("Set-Cookie");
+        redactHeader("Cookie");
+        redactPattern("\"password\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+        redactPattern("<(?:\\w+:)?[Pp]assword>([^<]*)<");
+        redactPattern("[?&](?:token|password)=([^&#]*)");
+    }
+
+    /**
+     * Redacts the value of the response header with the passed in name, compared ignoring case.
+     *
+     * @return this file
+     */
+    public ExchangeFile redactHeader(String name) {
+        redactedHeaders.add(name.toLowerCase());
+        return this;
+    }
+
+    /**
+     * Redacts every match of the passed in regular expression in urls and text bodies.
+     *
+     * @return this file
+     */
+    public ExchangeFile redactPattern(String regex) {
+        redactedPatterns.add(Pattern.compile(regex));
+        return this;
+    }
+
+    /**
+     * Writes the passed in exchanges, redacted, replacing the file.
+     *
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public void write(List<RecordReplayTransport.Exchange> exchanges) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+
+        // Write to a temporary file first so a reader never sees a partial file
+        File tmp = new File(parent, file.getName() + ".tmp");
+        JsonWriter out = null;
+        try {
+            out = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))), UTF_8));
+            out.beginObject();
+            out.name("version").value(FORMAT_VERSION);
+            out.name("exchanges").beginArray();
+            for (RecordReplayTransport.Exchange exchange : exchanges) {
+                writeExchange(out, exchange);
+            }
+            out.endArray();
+            out.endObject();
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) {
+                // renameTo does not replace an existing file on every platform
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Could not rename " + tmp + " to " + file);
+                }
+            }
+        } finally {
+            close(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the exchanges in the file, in the order they were recorded.
+     *
+     * @throws IOException
+     *             if the file could not be read or is not an exchange file
+     */
+    public List<RecordReplayTransport.Exchange> read() throws IOException {
+        List<RecordReplayTransport.Exchange> exchanges =
+                new ArrayList<RecordReplayTransport.Exchange>();
+        JsonReader in = null;
+        try {
+            in = new JsonReader(new InputStreamReader(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(file))), UTF_8));
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if ("version".equals(name)) {
+                    int version = in.nextInt();
+                    if (version != FORMAT_VERSION) {
+                        throw new IOException("Unsupported exchange file version " + version);
+                    }
+                } else if ("exchanges".equals(name)) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        exchanges.add(readExchange(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed exchange file " + file, e);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed exchange file " + file, e);
+        } finally {
+            close(in);
+        }
+
+        return exchanges;
+    }
+
+    private void writeExchange(JsonWriter out, RecordReplayTransport.Exchange exchange)
+            throws IOException {
+        Header[] headers = exchange.getHeaders();
+        out.beginObject();
+        out.name("method").value(exchange.getMethod());
+        out.name("uri").value(redact(exchange.getUri()));
+        out.name("status").value(exchange.getStatus());
+        out.name("reason").value(exchange.getReason());
+        out.name("millis").value(exchange.getMillis());
+
+        out.name("headers").beginArray();
+        for (Header header : headers) {
+            String name = header.getName();
+            if (isFraming(name)) {
+                continue;
+            }
+
+            out.value(name);
+            out.value(redactedHeaders.contains(name.toLowerCase()) ? REDACTED : header.getValue());
+        }
+        out.endArray();
+
+        byte[] body = exchange.getBody();
+        if (null != body) {
+            Charset charset = textCharset(headers);
+            if (null != charset) {
+                out.name("body").value(redact(new String(body, charset)));
+            } else {
+                out.name("body64").value(Base64.encodeBase64String(body));
+            }
+        }
+
+        out.endObject();
+    }
+
+    private static RecordReplayTransport.Exchange readExchange(JsonReader in) throws IOException {
+        String method = null;
+        String uri = null;
+        int status = 0;
+        String reason = null;
+        long millis = 0;
+        List<Header> headers = new ArrayList<Header>();
+        String text = null;
+        byte[] body = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if ("method".equals(name)) {
+                method = in.nextString();
+            } else if ("uri".equals(name)) {
+                uri = in.nextString();
+            } else if ("status".equals(name)) {
+                status = in.nextInt();
+            } else if ("reason".equals(name)) {
+                reason = in.nextString();
+            } else if ("millis".equals(name)) {
+                millis = in.nextLong();
+            } else if ("headers".equals(name)) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    headers.add(new BasicHeader(in.nextString(), in.nextString()));
+                }
+                in.endArray();
+            } else if ("body".equals(name)) {
+                text = in.nextString();
+            } else if ("body64".equals(name)) {
+                body = Base64.decodeBase64(in.nextString());
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        Header[] headerArray = headers.toArray(new Header[headers.size()]);
+        if (null != text) {
+            body = text.getBytes(textCharset(headerArray));
+        }
+
+        return new RecordReplayTransport.Exchange(method, uri, status, reason, headerArray, body,
+                millis);
+    }
+
+    private String redact(String s) {
+        if (null == s) {
+            return null;
+        }
+
+        for (Pattern pattern : redactedPatterns) {
+            Matcher m = pattern.matcher(s);
+            if (!m.find()) {
+                continue;
+            }
+
+            StringBuilder sb = new StringBuilder(s.length());
+            int last = 0;
+            do {
+                int group = m.groupCount() > 0 && m.start(1) >= 0 ? 1 : 0;
+                sb.append(s, last, m.start(group)).append(REDACTED);
+                last = m.end(group);
+            } while (m.find());
+
+            s = sb.append(s, last, s.length()).toString();
+        }
+
+        return s;
+    }
+
+    /*
+     * Returns the charset of a body stored as text, or null if it is stored base64 encoded
+     */
+    private static Charset textCharset(Header[] headers) {
+        for (Header header : headers) {
+            if (!"Content-Type".equalsIgnoreCase(header.getName())) {
+                continue;
+            }
+
+            String value = header.getValue().toLowerCase();
+            if (!value.contains("xml") && !value.contains("json") && !value.startsWith("text/")) {
+                return null;
+            }
+
+            try {
+                Charset charset = ContentType.parse(header.getValue()).getCharset();
+                return null != charset ? charset : UTF_8;
+            } catch (RuntimeException e) {
+                // An unknown charset or a malformed value, keep the bytes as they are
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isFraming(String name) {
+        return "Content-Length".equalsIgnoreCase(name)
+                || "Transfer-Encoding".equalsIgnoreCase(name)
+                || "Connection".equalsIgnoreCase(name) || "Keep-Alive".equalsIgnoreCase(name);
+    }
+
+    private static void close(Closeable closeable) {
+        if (null != closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class decides when HttpUtils.httpInvoke() hedges a GET: if no response arrived within the
+ * percentile latency of the GET's endpoint (the same endpoint template CircuitBreaker uses), a
+ * second copy of the request is sent and the first response to arrive is used, the other call is
+ * aborted. Each endpoint's percentile is computed from its last 256 latencies; until an endpoint
+ * has minSamples of them its calls are not hedged.
+ *
+ * Hedges are paid for from a budget like RetryPolicy's: every GET adds maxHedgeRatio of a hedge
+ * and every hedge takes one, with at most budgetReserve saved up, so hedging adds at most
+ * maxHedgeRatio to the load even when the whole service slows down. This class is thread safe.
+ */
+public class HedgePolicy {
+    private static final int WINDOW = 256;
+    private static final int RECOMPUTE_EVERY = 16;
+
+    /*
+     * The recent latencies of one endpoint
+     */
+    private static class Latencies {
+        final long[] samples = new long[WINDOW];
+        int next;
+        int count;
+        volatile long thresholdNanos = -1;
+
+        synchronized void record(long latencyNanos, double percentile, int minSamples) {
+            samples[next] = latencyNanos;
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) {
+                count++;
+            }
+
+            // Sorting on every call would cost more than it saves
+            if (count >= minSamples && (count < WINDOW || next % RECOMPUTE_EVERY == 0)) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                thresholdNanos = sorted[Math.min(count - 1, (int) (percentile * count))];
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, Latencies> endpoints =
+            new ConcurrentHashMap<String, Latencies>();
+    private final double percentile;
+    private final int minSamples;
+    private final long minDelayNanos;
+    private final double maxHedgeRatio;
+    private final double budgetReserve;
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private double budget;
+    private ExecutorService executor;
+
+    /**
+     * Creates a policy that hedges after the 95th percentile, but not before 20 ms, once an
+     * endpoint has 20 latencies, with at most 1 hedge per 20 GETs and a reserve of 5 hedges.
+     */
+    public HedgePolicy() {
+        this(0.95, 20, 20, 0.05, 5);
+    }
+
+    /**
+     * @param percentile
+     *            the percentile of an endpoint's latencies after which a call is hedged, e.g. 0.95
+     * @param minSamples
+     *            the number of latencies an endpoint needs before its calls are hedged
+     * @param minDelayMillis
+     *            the least time to wait before hedging, whatever the percentile
+     * @param maxHedgeRatio
+     *            the fraction of a hedge earned by each GET
+     * @param budgetReserve
+     *            the maximum number of hedges that can be saved up, the budget starts full
+     */
+    public HedgePolicy(double percentile, int minSamples, long minDelayMillis,
+            double maxHedgeRatio, double budgetReserve) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, Math.min(WINDOW, minSamples));
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.budgetReserve = budgetReserve;
+        this.budget = budgetReserve;
+    }
+
+    /**
+     * Returns how long to wait for a response from the endpoint with the passed in key before
+     * hedging, or -1 if its calls are not hedged yet. Earns the GET's share of the budget.
+     */
+    public long getDelayNanos(String key) {
+        synchronized (this) {
+            budget = Math.min(budgetReserve, budget + maxHedgeRatio);
+        }
+
+        long threshold = getLatencies(key).thresholdNanos;
+        return threshold < 0 ? -1 : Math.max(minDelayNanos, threshold);
+    }
+
+    /**
+     * Takes one hedge from the budget.
+     *
+     * @return false if the budget is spent and the call must not be hedged
+     */
+    public synchronized boolean acquireHedge() {
+        if (budget < 1) {
+            return false;
+        }
+
+        budget -= 1;
+        hedged.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the latency of a completed call to the endpoint with the passed in key.
+     */
+    public void record(String key, long latencyNanos) {
+        getLatencies(key).record(latencyNanos, percentile, minSamples);
+    }
+
+    /**
+     * Counts a hedge whose response arrived before the one of the call it hedged.
+     */
+    public void onHedgeWin() {
+        hedgeWins.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of hedges sent.
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * Returns the number of hedges that answered first.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Returns the current hedge delay of the endpoint with the passed in key in milliseconds, -1
+     * if its calls are not hedged yet.
+     */
+    public long getThresholdMillis(String key) {
+        long threshold = getLatencies(key).thresholdNanos;
+        return threshold < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(threshold);
+    }
+
+    /**
+     * Returns the executor running hedged calls, daemon threads that end when idle.
+     */
+    synchronized ExecutorService getExecutor() {
+        if (null == executor) {
+            final AtomicInteger threads = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "hedged-call-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    private Latencies getLatencies(String key) {
+        Latencies latencies = endpoints.get(key);
+        if (null == latencies) {
+            Latencies created = new Latencies();
+            latencies = endpoints.putIfAbsent(key, created);
+            if (null == latencies) {
+                latencies = created;
+            }
+        }
+
+        return latencies;
+    }
+}
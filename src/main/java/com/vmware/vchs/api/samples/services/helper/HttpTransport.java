@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * This interface is the backend HttpUtils sends its requests with, below retries, hedging, the
+ * concurrency limiter and the circuit breaker. ApacheTransport is the default; another
+ * implementation, e.g. one multiplexing requests over HTTP/2, is installed with
+ * HttpUtils.setTransport(). Implementations must be thread safe: execute() is called concurrently
+ * and may be called again for the same request after a failed attempt.
+ */
+public interface HttpTransport {
+    /**
+     * Sends the request and returns its response once the status line and headers are read. The
+     * caller consumes the response entity, which releases any connection it holds.
+     *
+     * @param request
+     *            the request to send, aborting it must abort the call
+     * @return the response, never null
+     * @throws IOException
+     *             if the call failed or was aborted
+     */
+    HttpResponse execute(HttpRequestBase request) throws IOException;
+
+    /**
+     * Releases the connections held by the transport. It is not used afterwards.
+     */
+    void shutdown();
+}
@@ -13,48 +13,67 @@ package com.vmware.vchs.api.samples.services.helper;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.xml.bind.JAXB;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
+import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.util.EntityUtils;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
@@ -70,31 +89,698 @@ import com.vmware.vcloud.api.rest.schema_v1_5.QueryResultRecordsType;
  * This class provides the common http functionality using the Apache HttpClient library.
  */
 public class HttpUtils {
+    // How long warmUp() waits for the connections to open
+    private static final long WARM_UP_TIMEOUT_MILLIS = 10000;
+
+    // Resolves host names for every connection manager, caching the answers
+    private static final CachingDnsResolver dnsResolver = new CachingDnsResolver();
+
+    // Sends the requests, a new HttpClient per call unless the connection pool is enabled
+    private static volatile HttpTransport transport = new ApacheTransport();
+
+    // Replaces the transport for the calls made from one thread
+    private static final ThreadLocal<HttpTransport> boundTransport =
+            new ThreadLocal<HttpTransport>();
+
+    // Records a span per call, Tracer.NONE for none
+    private static volatile Tracer tracer = Tracer.NONE;
+
+    // Runs httpInvokeAsync() calls, created on first use
+    private static ExecutorService asyncExecutor;
+
+    // Retries idempotent calls that failed transiently, null disables retries
+    private static volatile RetryPolicy retryPolicy = new RetryPolicy();
+
+    // Limits the calls in flight per host, null for no limit
+    private static volatile ConcurrencyLimiter concurrencyLimiter;
+
+    // Fails calls to failing endpoints fast, null for none
+    private static volatile CircuitBreaker circuitBreaker;
+
+    // Hedges slow GETs, null for none
+    private static volatile HedgePolicy hedgePolicy;
+
+    // Shares one call between concurrent identical GETs, null while coalescing is disabled
+    private static volatile SingleFlight<List<?>, BufferedResponse> inFlightGets;
+
+    /*
+     * A response read completely, so that any number of callers can be handed a copy of it
+     */
+    private static class BufferedResponse {
+        private final StatusLine statusLine;
+        private final Header[] headers;
+        private final byte[] body;
+        private final Header contentType;
+        private final Header contentEncoding;
+
+        BufferedResponse(HttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            statusLine = response.getStatusLine();
+            headers = response.getAllHeaders();
+            body = null != entity ? EntityUtils.toByteArray(entity) : null;
+            contentType = null != entity ? entity.getContentType() : null;
+            contentEncoding = null != entity ? entity.getContentEncoding() : null;
+        }
+
+        HttpResponse copy() {
+            HttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            if (null != body) {
+                ByteArrayEntity entity = new ByteArrayEntity(body);
+                entity.setContentType(contentType);
+                entity.setContentEncoding(contentEncoding);
+                response.setEntity(entity);
+            }
+
+            return response;
+        }
+    }
+
     /**
-     * Executes an http request using the passed in request parameter.
+     * Executes an http request using the passed in request parameter. Idempotent requests that
+     * fail transiently are retried as decided by the current RetryPolicy. While request coalescing
+     * is enabled, a GET that is identical to one in flight waits for it and gets a copy of its
+     * response instead of making a call of its own.
      * 
      * @param request
      *            the HttpRequestBase subclass to make a request with
      * @return the response of the request
      */
     public static HttpResponse httpInvoke(HttpRequestBase request) {
+        return invoke(getTransport(), request);
+    }
+
+    private static HttpResponse invoke(final HttpTransport transport,
+            final HttpRequestBase request) {
+        SingleFlight<List<?>, BufferedResponse> flights = inFlightGets;
+        if (null == flights || !"GET".equals(request.getMethod())) {
+            return send(transport, request);
+        }
+
+        // Only calls sent with the same transport are identical
+        List<?> key = Arrays.asList(transport, flightKey(request));
+        BufferedResponse response = flights.execute(key, new Callable<BufferedResponse>() {
+            public BufferedResponse call() throws IOException {
+                return new BufferedResponse(send(transport, request));
+            }
+        });
+
+        // Every caller gets its own copy, the body is read only once
+        return response.copy();
+    }
+
+    /**
+     * Makes concurrent GETs with the same url and headers, which include the auth token, share one
+     * call and its response. Each caller still decodes its own copy of the response body, as the
+     * decoded objects are mutable. Nothing is cached once the call completes.
+     */
+    public static synchronized void enableRequestCoalescing() {
+        if (null == inFlightGets) {
+            inFlightGets = new SingleFlight<List<?>, BufferedResponse>();
+        }
+    }
+
+    public static synchronized void disableRequestCoalescing() {
+        inFlightGets = null;
+    }
+
+    /**
+     * Returns the number of GETs answered with the response of another caller's call since request
+     * coalescing was enabled, 0 if it is disabled.
+     */
+    public static long getCoalescedRequests() {
+        SingleFlight<List<?>, BufferedResponse> flights = inFlightGets;
+        return null == flights ? 0 : flights.getShared();
+    }
+
+    /*
+     * Identifies identical requests: method, url and every header, in order
+     */
+    private static String flightKey(HttpRequestBase request) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getMethod()).append(' ').append(request.getURI());
+        for (Header header : request.getAllHeaders()) {
+            sb.append('\n').append(header.getName()).append(": ").append(header.getValue());
+        }
+
+        return sb.toString();
+    }
+
+    private static HttpResponse send(HttpTransport transport, HttpRequestBase request) {
+        Tracer.Span span = startSpan(request);
         HttpResponse httpResponse = null;
-        HttpClient httpClient = null;
+        try {
+            httpResponse = execute(transport, request);
+
+            // Callers are free to ignore the response body, buffer it so the connection is
+            // released, or returned to the pool, right away
+            HttpEntity entity = httpResponse.getEntity();
+            if (null != entity) {
+                httpResponse.setEntity(new BufferedHttpEntity(entity));
+                EntityUtils.consume(entity);
+            }
+
+            return httpResponse;
+        } catch (ClientProtocolException e) {
+            span.set("error", e.toString());
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            span.set("error", e.toString());
+            throw new RuntimeException(e);
+        } finally {
+            endSpan(span, httpResponse);
+        }
+    }
 
+    /*
+     * Starts the span of a call, named after its endpoint template so calls to the same endpoint
+     * line up on the timeline
+     */
+    private static Tracer.Span startSpan(HttpRequestBase request) {
+        Tracer.Span span = tracer.start(CircuitBreaker.keyOf(request.getMethod(), request.getURI()),
+                "http");
+        span.set("url", request.getURI().toString());
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            // -1 for a body streamed without a known length
+            span.set("requestBytes", null == entity ? 0 : entity.getContentLength());
+        }
+
+        return span;
+    }
+
+    private static void endSpan(Tracer.Span span, HttpResponse response) {
+        if (null != response) {
+            HttpEntity entity = response.getEntity();
+            span.set("status", response.getStatusLine().getStatusCode());
+            span.set("responseBytes", null == entity ? 0 : entity.getContentLength());
+        }
+
+        span.end();
+    }
+
+    /**
+     * Records a span for every call made with httpInvoke() or httpInvokeAsync() with the passed in
+     * tracer, as the child of the span open on the calling thread. Each span has the url, status
+     * and the request and response sizes in bytes; a call that failed has the error instead.
+     * 
+     * @param callTracer
+     *            the tracer, null to stop tracing calls
+     */
+    public static void setTracer(Tracer callTracer) {
+        tracer = null != callTracer ? callTracer : Tracer.NONE;
+    }
+
+    public static Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Executes an http request like httpInvoke() on a background thread, so a caller can have many
+     * calls in flight without a thread of its own for each. The response body is buffered before
+     * the future completes. A failed call completes the future with an ExecutionException. The
+     * call is sent with the transport of the calling thread.
+     * 
+     * @param request
+     *            the HttpRequestBase subclass to make a request with
+     * @return the future response of the request
+     */
+    public static Future<HttpResponse> httpInvokeAsync(final HttpRequestBase request) {
+        final HttpTransport current = getTransport();
+        final Tracer callTracer = tracer;
+        final Tracer.Span parent = callTracer.getCurrentSpan();
+        return getAsyncExecutor().submit(new Callable<HttpResponse>() {
+            public HttpResponse call() {
+                // The call's span is a child of the submitter's open span
+                Tracer.Span previous = callTracer.attach(parent);
+                try {
+                    return invoke(current, request);
+                } finally {
+                    callTracer.attach(previous);
+                }
+            }
+        });
+    }
+
+    /*
+     * Returns the executor running httpInvokeAsync() calls, daemon threads that end when idle
+     */
+    private static synchronized ExecutorService getAsyncExecutor() {
+        if (null == asyncExecutor) {
+            final AtomicInteger threads = new AtomicInteger();
+            asyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "http-invoke-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return asyncExecutor;
+    }
+
+    /**
+     * Executes an http request using the passed in request parameter and hands the response to the
+     * passed in handler while the connection is still open, so the handler can stream the response
+     * body. The response body is consumed and the connection released once the handler returns.
+     * Retries happen before the handler is called, so it only sees the final response.
+     * 
+     * @param request
+     *            the HttpRequestBase subclass to make a request with
+     * @param handler
+     *            the handler to process the response with
+     * @return the value returned by the handler
+     */
+    public static <T> T httpInvoke(HttpRequestBase request, ResponseHandler<? extends T> handler) {
+        Tracer.Span span = startSpan(request);
+        HttpResponse response = null;
         try {
-            // Create a fresh HttpClient.. some samples will make calls to two (or more)
-            // urls in a single run, sharing a static non-multithreaded instance causes
-            // exceptions. This prevents that by ensuring each call to httpInvoke gets
-            // its own instance.
-            httpClient = createTrustingHttpClient();
-            httpResponse = httpClient.execute(request);
+            response = execute(getTransport(), request);
+            try {
+                return handler.handleResponse(response);
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
         } catch (ClientProtocolException e) {
+            span.set("error", e.toString());
             throw new RuntimeException(e);
         } catch (IOException e) {
+            span.set("error", e.toString());
             throw new RuntimeException(e);
+        } finally {
+            // A streamed body's size is its Content-Length, -1 if the server sent none
+            endSpan(span, response);
+        }
+    }
+
+    /**
+     * Replaces the policy used to retry idempotent calls, null disables retries. The default
+     * policy is new RetryPolicy().
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy;
+    }
+
+    public static RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Replaces the limiter of the number of calls in flight per host, null removes the limit. There
+     * is no limiter by default.
+     */
+    public static void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+        concurrencyLimiter = limiter;
+    }
+
+    public static ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Replaces the circuit breaker that fails calls to failing endpoints fast, null removes it.
+     * There is no circuit breaker by default. Calls rejected by an open circuit throw a
+     * RuntimeException caused by a CircuitBreaker.OpenException and are not retried.
+     */
+    public static void setCircuitBreaker(CircuitBreaker breaker) {
+        circuitBreaker = breaker;
+    }
+
+    public static CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Replaces the policy used to hedge slow GETs, null disables hedging. GETs are not hedged by
+     * default.
+     */
+    public static void setHedgePolicy(HedgePolicy policy) {
+        hedgePolicy = policy;
+    }
+
+    public static HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /*
+     * Executes the request, retrying it as allowed by the current RetryPolicy. The response of a
+     * failed attempt is consumed so its connection can be reused by the next one.
+     */
+    private static HttpResponse execute(HttpTransport transport, HttpRequestBase request)
+            throws IOException {
+        RetryPolicy policy = retryPolicy;
+        if (null == policy || policy.getMaxAttempts() == 1 || !policy.isRetryable(request)) {
+            return executeHedged(transport, request);
+        }
+
+        policy.onRequest();
+
+        for (int attempt = 1;; attempt++) {
+            HttpResponse response = null;
+            IOException failure = null;
+
+            try {
+                response = executeHedged(transport, request);
+                if (!policy.isRetryable(response.getStatusLine().getStatusCode())) {
+                    return response;
+                }
+            } catch (CircuitBreaker.OpenException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            long delay = attempt < policy.getMaxAttempts() ? policy.getDelayMillis(attempt,
+                    response) : -1;
+            if (delay < 0 || !policy.acquireRetry()) {
+                if (null != failure) {
+                    throw failure;
+                }
+
+                return response;
+            }
+
+            if (null != response) {
+                EntityUtils.consume(response.getEntity());
+            }
+
+            request.reset();
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry "
+                        + request.getURI());
+            }
+        }
+    }
+
+    /*
+     * One copy of a hedged GET, recording its latency when it completes
+     */
+    private static class HedgedAttempt implements Callable<HttpResponse> {
+        private final HttpTransport transport;
+        private final HttpRequestBase request;
+        private final HedgePolicy policy;
+        private final String key;
+
+        HedgedAttempt(HttpTransport transport, HttpRequestBase request, HedgePolicy policy,
+                String key) {
+            this.transport = transport;
+            this.request = request;
+            this.policy = policy;
+            this.key = key;
+        }
+
+        public HttpResponse call() throws IOException {
+            long start = System.nanoTime();
+            HttpResponse response = executeOnce(transport, request);
+            policy.record(key, System.nanoTime() - start);
+            return response;
+        }
+    }
+
+    /*
+     * Executes one attempt of a GET. If the HedgePolicy has a delay for its endpoint and no
+     * response arrived within it, a copy is sent as well and the first response to arrive is
+     * returned, the other call is aborted and its response discarded
+     */
+    private static HttpResponse executeHedged(HttpTransport transport, HttpRequestBase request)
+            throws IOException {
+        HedgePolicy policy = hedgePolicy;
+        if (null == policy || !"GET".equals(request.getMethod())) {
+            return executeOnce(transport, request);
+        }
+
+        String key = CircuitBreaker.keyOf(request.getMethod(), request.getURI());
+        long delay = policy.getDelayNanos(key);
+        if (delay < 0) {
+            return new HedgedAttempt(transport, request, policy, key).call();
+        }
+
+        HttpRequestBase first = copy(request);
+
+        ExecutorService executor = policy.getExecutor();
+        CompletionService<HttpResponse> calls = new ExecutorCompletionService<HttpResponse>(
+                executor);
+        Future<HttpResponse> firstCall = calls.submit(new HedgedAttempt(transport, first,
+                policy, key));
+        HttpRequestBase second = null;
+        Future<HttpResponse> secondCall = null;
+
+        try {
+            Future<HttpResponse> done = calls.poll(delay, TimeUnit.NANOSECONDS);
+            if (null == done && policy.acquireHedge()) {
+                second = copy(request);
+                secondCall = calls.submit(new HedgedAttempt(transport, second, policy, key));
+            }
+
+            int pending = null == secondCall ? 1 : 2;
+            IOException failure = null;
+            while (pending-- > 0) {
+                if (null == done) {
+                    done = calls.take();
+                }
+
+                try {
+                    HttpResponse response = done.get();
+                    if (pending > 0) {
+                        boolean hedgeWon = done == secondCall;
+                        if (hedgeWon) {
+                            policy.onHedgeWin();
+                        }
+
+                        (hedgeWon ? first : second).abort();
+                        discard(executor, hedgeWon ? firstCall : secondCall);
+                    }
+
+                    return response;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else if (null == failure) {
+                        failure = (IOException) cause;
+                    }
+                }
+
+                done = null;
+            }
+
+            throw failure;
+        } catch (InterruptedException e) {
+            first.abort();
+            if (null != second) {
+                second.abort();
+            }
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getURI());
         }
+    }
+
+    /*
+     * Releases the connection of a call that lost a hedge, in case it completed before it was
+     * aborted
+     */
+    private static void discard(ExecutorService executor, final Future<HttpResponse> call) {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    EntityUtils.consumeQuietly(call.get().getEntity());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // aborted as intended
+                }
+            }
+        });
+    }
 
-        return httpResponse;
+    /*
+     * Copies a GET so each copy can be aborted on its own, clone() would share the abort state
+     */
+    private static HttpRequestBase copy(HttpRequestBase request) {
+        HttpGet copy = new HttpGet(request.getURI());
+        copy.setHeaders(request.getAllHeaders());
+        copy.setParams(request.getParams());
+        return copy;
+    }
+
+    /*
+     * Executes one attempt of the request, unless the CircuitBreaker rejects it, holding a slot of
+     * the ConcurrencyLimiter from sending the request until the response headers arrive
+     */
+    private static HttpResponse executeOnce(HttpTransport transport, HttpRequestBase request)
+            throws IOException {
+        ConcurrencyLimiter limiter = concurrencyLimiter;
+        CircuitBreaker breaker = circuitBreaker;
+        if (null == limiter && null == breaker) {
+            return transport.execute(request);
+        }
+
+        String circuit = null;
+        if (null != breaker) {
+            circuit = CircuitBreaker.keyOf(request.getMethod(), request.getURI());
+            if (!breaker.allow(circuit)) {
+                throw new CircuitBreaker.OpenException(circuit);
+            }
+        }
+
+        String host = request.getURI().getHost();
+        long start = System.nanoTime();
+        int status = -1;
+        boolean acquired = false;
+        try {
+            if (null != limiter) {
+                limiter.acquire(host);
+                acquired = true;
+                // Time spent queued is not the host's latency
+                start = System.nanoTime();
+            }
+
+            HttpResponse response = transport.execute(request);
+            status = response.getStatusLine().getStatusCode();
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call " + host);
+        } finally {
+            long latency = System.nanoTime() - start;
+            // An aborted call, e.g. the slower half of a hedged GET, says nothing about the host
+            boolean cancelled = status < 0 && request.isAborted();
+            if (acquired) {
+                limiter.release(host, latency, cancelled ? 0 : status);
+            }
+
+            if (null != breaker) {
+                if (cancelled || (!acquired && null != limiter)) {
+                    breaker.cancel(circuit);
+                } else {
+                    breaker.record(circuit, latency, status);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the backend all calls are sent with, below retries, hedging, the concurrency limiter
+     * and the circuit breaker. Threads with a transport bound by bindTransport() keep using it.
+     * The previous transport is shut down, calls in flight on it may fail.
+     * 
+     * @param newTransport
+     *            the transport to use, null for the default ApacheTransport without a pool
+     */
+    public static synchronized void setTransport(HttpTransport newTransport) {
+        HttpTransport previous = transport;
+        transport = null != newTransport ? newTransport : new ApacheTransport();
+
+        if (previous != transport) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Sends the calls made from the current thread with the passed in transport instead of the one
+     * set with setTransport(), e.g. a LoopbackTransport while running a sample against canned
+     * responses. The Compute, IAM, ServiceController, Metering and Billing helpers are static, so
+     * this is how a transport is injected into them without changing their callers:
+     * 
+     * <pre>
+     * HttpTransport previous = HttpUtils.bindTransport(loopback);
+     * try {
+     *     ServiceController.getInstances(url, version, token);
+     * } finally {
+     *     HttpUtils.bindTransport(previous);
+     * }
+     * </pre>
+     * 
+     * The bound transport is not shut down by setTransport().
+     * 
+     * @param threadTransport
+     *            the transport for the current thread, null to use the one set with
+     *            setTransport() again
+     * @return the transport bound before, or null
+     */
+    public static HttpTransport bindTransport(HttpTransport threadTransport) {
+        HttpTransport previous = boundTransport.get();
+        if (null == threadTransport) {
+            boundTransport.remove();
+        } else {
+            boundTransport.set(threadTransport);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Returns the transport calls from the current thread are sent with: the one bound with
+     * bindTransport(), or the one set with setTransport().
+     */
+    public static HttpTransport getTransport() {
+        HttpTransport bound = boundTransport.get();
+        return null != bound ? bound : transport;
+    }
+
+    /**
+     * Switches httpInvoke() from a new HttpClient per call to a single thread safe HttpClient that
+     * keeps up to maxConnections connections open, so concurrent callers reuse connections instead
+     * of paying a TCP and TLS handshake on every call. Calling it again replaces the pool, as does
+     * any transport set with setTransport().
+     * 
+     * @param maxConnections
+     *            the maximum number of pooled connections, per host and in total
+     */
+    public static synchronized void enableConnectionPool(int maxConnections) {
+        setTransport(new ApacheTransport(maxConnections));
+    }
+
+    /**
+     * Closes the pooled connections and switches httpInvoke() back to a new HttpClient per call.
+     */
+    public static synchronized void disableConnectionPool() {
+        setTransport(null);
+    }
+
+    /**
+     * Opens pooled connections to the hosts of the passed in urls in parallel, so the first call
+     * to each of them does not pay for the DNS lookup and the TCP and TLS handshakes. Without the
+     * connection pool only the host names are resolved. Failures are ignored, the first call to
+     * an unreachable host reports them.
+     * 
+     * @param urls
+     *            the urls whose hosts to connect to, duplicate hosts are warmed up once
+     * @param connectionsPerHost
+     *            the number of connections to open per host
+     * @return the number of connections opened
+     */
+    public static int warmUp(Collection<String> urls, int connectionsPerHost) {
+        List<URI> uris = new ArrayList<URI>(urls.size());
+        for (String url : urls) {
+            try {
+                uris.add(new URI(url));
+            } catch (URISyntaxException e) {
+                // Not a url, nothing to warm up
+            }
+        }
+
+        HttpTransport current = getTransport();
+        if (!(current instanceof ApacheTransport)) {
+            return 0;
+        }
+
+        return ((ApacheTransport) current).warmUp(uris, connectionsPerHost, WARM_UP_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the resolver all connection managers look host names up with.
+     */
+    public static CachingDnsResolver getDnsResolver() {
+        return dnsResolver;
     }
 
     /**
@@ -112,8 +798,22 @@ public class HttpUtils {
      * @return HttpClient a new instance of HttpClient
      */
     static HttpClient createTrustingHttpClient() {
-        HttpClient base = new DefaultHttpClient();
+        SchemeRegistry sr = createTrustingSchemeRegistry();
+        if (null == sr) {
+            return null;
+        }
+
+        // A single use pool, the only manager that takes a DnsResolver
+        return new DefaultHttpClient(new PoolingClientConnectionManager(sr, dnsResolver));
+    }
 
+    /**
+     * This method returns the default SchemeRegistry with https registered to trust all
+     * certificates.
+     * 
+     * @return SchemeRegistry a new SchemeRegistry, or null if TLS could not be initialized
+     */
+    static SchemeRegistry createTrustingSchemeRegistry() {
         try {
             SSLContext ctx = SSLContext.getInstance("TLS");
 
@@ -137,11 +837,10 @@ public class HttpUtils {
             ctx.init(null, trustAllCerts, null);
             SSLSocketFactory ssf = new SSLSocketFactory(ctx);
             ssf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-            ClientConnectionManager ccm = base.getConnectionManager();
-            SchemeRegistry sr = ccm.getSchemeRegistry();
+            SchemeRegistry sr = SchemeRegistryFactory.createDefault();
             sr.register(new Scheme("https", 443, ssf));
 
-            return new DefaultHttpClient(ccm, base.getParams());
+            return sr;
         } catch (Exception ex) {
             ex.printStackTrace();
             return null;
@@ -149,38 +848,15 @@ public class HttpUtils {
     }
 
     /**
-     * This helper method will create the JAXB context for the provided Class<T> and
-     * marshal the provided JAXBElement<T> into a StringEntity.
+     * This helper method will wrap the provided JAXBElement<T> into an entity that marshals it as
+     * UTF-8 XML directly to the connection when the request is sent.
      * 
      * @param clazz
      * @param jaxb
      * @return
      */
-    public static <T> StringEntity marshal(Class<T> clazz, JAXBElement<T> jaxb) {
-        JAXBContext jaxbContexts = null;
-        OutputStream os = null;
-
-        try {
-            jaxbContexts = JAXBContext.newInstance(clazz);
-        } catch (JAXBException ex) {
-            throw new RuntimeException("Problem creating JAXB Context: ", ex);
-        }
-
-        try {
-            javax.xml.bind.Marshaller marshaller = jaxbContexts.createMarshaller();
-            marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            os = new ByteArrayOutputStream();
-            // Marshal the object via JAXB to XML
-            marshaller.marshal(jaxb, os);
-        } catch (JAXBException e) {
-            throw new RuntimeException("Problem marshalling instantiation VDC template", e);
-        }
-
-        try {
-            return new StringEntity(os.toString());
-        } catch (UnsupportedEncodingException e1) {
-            throw new RuntimeException("Problem marshalling instantiation VDC template", e1);
-        }
+    public static <T> AbstractHttpEntity marshal(Class<T> clazz, JAXBElement<T> jaxb) {
+        return new JaxbEntity<T>(clazz, jaxb);
     }
 
     /**
@@ -203,14 +879,7 @@ public class HttpUtils {
             // Check if the response content-type contains the string json.. if so use GSON to
             // convert from json to the provided Class<T> type
             if (entity.getContentType().toString().toLowerCase().contains("json")) {
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                        new XMLGregorianClassConverter.Serializer());
-                gsonBuilder.registerTypeAdapter(XMLGregorianCalendar.class,
-                        new XMLGregorianClassConverter.Deserializer());
-
-                Gson g = gsonBuilder.create();
-                return g.fromJson(s, clazz);
+                return JsonCodec.fromJson(s, clazz);
             }
 
             is = new ByteArrayInputStream(s.getBytes("UTF-8"));
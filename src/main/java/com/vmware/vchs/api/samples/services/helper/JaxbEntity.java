@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * This class is a request body that marshals a JAXB element as UTF-8 XML straight to the
+ * connection when the request is sent, instead of building the XML as a String first. The length
+ * is not known up front, so the body is sent chunked; wrap it in a BufferedHttpEntity for a
+ * server that needs a Content-Length. The element is marshalled again for every attempt, so the
+ * entity can be retried. The JAXBContext of each class is created once and shared.
+ *
+ * @param <T>
+ *            the type of the marshalled element
+ */
+public class JaxbEntity<T> extends AbstractHttpEntity {
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTS =
+            new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    private final Class<T> clazz;
+    private final JAXBElement<T> element;
+
+    /**
+     * @param clazz
+     *            the class of the element value, the JAXBContext is created for it
+     * @param element
+     *            the element to marshal, it must not change until the request completes
+     */
+    public JaxbEntity(Class<T> clazz, JAXBElement<T> element) {
+        this.clazz = clazz;
+        this.element = element;
+        setContentType("application/xml; charset=UTF-8");
+        setChunked(true);
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Returns the marshalled XML. This buffers the whole body, sending it uses writeTo().
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeTo(os);
+        return new ByteArrayInputStream(os.toByteArray());
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        try {
+            Marshaller marshaller = getContext(clazz).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            marshaller.marshal(element, os);
+        } catch (JAXBException e) {
+            throw new IOException("Problem marshalling " + element.getName(), e);
+        }
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static JAXBContext getContext(Class<?> clazz) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(clazz);
+        if (null == context) {
+            // JAXBContext creation is expensive, creating two on a race is harmless
+            context = JAXBContext.newInstance(clazz);
+            CONTEXTS.putIfAbsent(clazz, context);
+        }
+
+        return context;
+    }
+}
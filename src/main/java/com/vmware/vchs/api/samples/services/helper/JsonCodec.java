@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vmware.vchs.iam.metatypes.v2.Meta;
+import com.vmware.vchs.iam.v2.Right;
+import com.vmware.vchs.iam.v2.Role;
+import com.vmware.vchs.iam.v2.Roles;
+import com.vmware.vchs.iam.v2.ServiceGroupIds;
+import com.vmware.vchs.iam.v2.User;
+import com.vmware.vchs.iam.v2.Users;
+import com.vmware.vchs.sc.common.v1.LinkType;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+
+/**
+ * This class holds the single Gson instance used for all JSON sent to and read from the vCHS
+ * APIs. The types that are encoded and decoded on every call (User, Users, InstanceType and
+ * InstanceAttribute) have hand written streaming TypeAdapters registered, so Gson never has to
+ * bind them by reflection. The JSON produced is the same as reflective binding produces, with
+ * the Java field names as JSON names and null values omitted, except that empty lists are omitted
+ * as well. Unknown JSON names are skipped when reading.
+ *
+ * Gson is thread safe, use gson() everywhere instead of creating a Gson per call.
+ */
+public final class JsonCodec {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(XMLGregorianCalendar.class, new CalendarAdapter().nullSafe())
+            .registerTypeAdapter(User.class, new UserAdapter().nullSafe())
+            .registerTypeAdapter(Users.class, new UsersAdapter().nullSafe())
+            .registerTypeAdapter(InstanceType.class, new InstanceTypeAdapter().nullSafe())
+            .registerTypeAdapter(InstanceAttribute.class, new InstanceAttributeAdapter().nullSafe())
+            .create();
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Returns the shared Gson instance.
+     */
+    public static Gson gson() {
+        return GSON;
+    }
+
+    /**
+     * Converts the passed in object to JSON.
+     */
+    public static String toJson(Object src) {
+        return GSON.toJson(src);
+    }
+
+    /**
+     * Converts the passed in JSON to an instance of clazz, returns null for null or empty JSON.
+     */
+    public static <T> T fromJson(String json, Class<T> clazz) {
+        return GSON.fromJson(json, clazz);
+    }
+
+    /*
+     * XMLGregorianCalendar as its XML string form, values that can not be parsed read as null
+     */
+    private static class CalendarAdapter extends TypeAdapter<XMLGregorianCalendar> {
+        // DatatypeFactory is expensive to look up and not guaranteed to be thread safe
+        private static final ThreadLocal<DatatypeFactory> FACTORY =
+                new ThreadLocal<DatatypeFactory>() {
+                    @Override
+                    protected DatatypeFactory initialValue() {
+                        try {
+                            return DatatypeFactory.newInstance();
+                        } catch (DatatypeConfigurationException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+
+        @Override
+        public void write(JsonWriter out, XMLGregorianCalendar value) throws IOException {
+            out.value(value.toXMLFormat());
+        }
+
+        @Override
+        public XMLGregorianCalendar read(JsonReader in) throws IOException {
+            if (in.peek() != JsonToken.STRING) {
+                in.skipValue();
+                return null;
+            }
+
+            try {
+                return FACTORY.get().newXMLGregorianCalendar(in.nextString());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class UserAdapter extends TypeAdapter<User> {
+        private final CalendarAdapter calendar = new CalendarAdapter();
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            out.beginObject();
+            name(out, "companyId", user.getCompanyId());
+            name(out, "customerNumber", user.getCustomerNumber());
+            name(out, "email", user.getEmail());
+            name(out, "familyName", user.getFamilyName());
+            name(out, "givenName", user.getGivenName());
+
+            Roles roles = user.getRoles();
+            if (null != roles) {
+                out.name("roles").beginObject();
+                if (!roles.getRoles().isEmpty()) {
+                    out.name("roles").beginArray();
+                    for (Role role : roles.getRoles()) {
+                        writeRole(out, role);
+                    }
+                    out.endArray();
+                }
+                out.endObject();
+            }
+
+            ServiceGroupIds serviceGroupIds = user.getServiceGroupIds();
+            if (null != serviceGroupIds) {
+                out.name("serviceGroupIds").beginObject();
+                strings(out, "serviceGroupIds", serviceGroupIds.getServiceGroupIds());
+                out.endObject();
+            }
+
+            if (null != user.getTosAcceptDate()) {
+                out.name("tosAcceptDate");
+                calendar.write(out, user.getTosAcceptDate());
+            }
+
+            if (null != user.getTosAccepted()) {
+                out.name("tosAccepted").value(user.getTosAccepted().booleanValue());
+            }
+
+            name(out, "userName", user.getUserName());
+            name(out, "password", user.getPassword());
+            name(out, "oldPassword", user.getOldPassword());
+
+            Meta meta = user.getMeta();
+            if (null != meta) {
+                out.name("meta").beginObject();
+                if (null != meta.getCreated()) {
+                    out.name("created");
+                    calendar.write(out, meta.getCreated());
+                }
+                if (null != meta.getModified()) {
+                    out.name("modified");
+                    calendar.write(out, meta.getModified());
+                }
+                out.endObject();
+            }
+
+            strings(out, "schemas", user.getSchemas());
+            name(out, "state", user.getState());
+            name(out, "id", user.getId());
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            User user = new User();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("companyId".equals(name)) {
+                    user.setCompanyId(in.nextString());
+                } else if ("customerNumber".equals(name)) {
+                    user.setCustomerNumber(in.nextString());
+                } else if ("email".equals(name)) {
+                    user.setEmail(in.nextString());
+                } else if ("familyName".equals(name)) {
+                    user.setFamilyName(in.nextString());
+                } else if ("givenName".equals(name)) {
+                    user.setGivenName(in.nextString());
+                } else if ("roles".equals(name)) {
+                    user.setRoles(readRoles(in));
+                } else if ("serviceGroupIds".equals(name)) {
+                    ServiceGroupIds ids = new ServiceGroupIds();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if ("serviceGroupIds".equals(in.nextName())) {
+                            readStrings(in, ids.getServiceGroupIds());
+                        } else {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    user.setServiceGroupIds(ids);
+                } else if ("tosAcceptDate".equals(name)) {
+                    user.setTosAcceptDate(calendar.read(in));
+                } else if ("tosAccepted".equals(name)) {
+                    user.setTosAccepted(in.nextBoolean());
+                } else if ("userName".equals(name)) {
+                    user.setUserName(in.nextString());
+                } else if ("password".equals(name)) {
+                    user.setPassword(in.nextString());
+                } else if ("oldPassword".equals(name)) {
+                    user.setOldPassword(in.nextString());
+                } else if ("meta".equals(name)) {
+                    Meta meta = new Meta();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        String field = in.nextName();
+                        if ("created".equals(field)) {
+                            meta.setCreated(calendar.read(in));
+                        } else if ("modified".equals(field)) {
+                            meta.setModified(calendar.read(in));
+                        } else {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    user.setMeta(meta);
+                } else if ("schemas".equals(name)) {
+                    readStrings(in, user.getSchemas());
+                } else if ("state".equals(name)) {
+                    user.setState(in.nextString());
+                } else if ("id".equals(name)) {
+                    user.setId(in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return user;
+        }
+
+        private static void writeRole(JsonWriter out, Role role) throws IOException {
+            out.beginObject();
+            name(out, "description", role.getDescription());
+            name(out, "name", role.getName());
+            if (!role.getRights().isEmpty()) {
+                out.name("rights").beginArray();
+                for (Right right : role.getRights()) {
+                    out.beginObject();
+                    name(out, "id", right.getId());
+                    name(out, "name", right.getName());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            name(out, "id", role.getId());
+            out.endObject();
+        }
+
+        private static Roles readRoles(JsonReader in) throws IOException {
+            Roles roles = new Roles();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("roles".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        roles.getRoles().add(readRole(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return roles;
+        }
+
+        private static Role readRole(JsonReader in) throws IOException {
+            Role role = new Role();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("description".equals(name)) {
+                    role.setDescription(in.nextString());
+                } else if ("name".equals(name)) {
+                    role.setName(in.nextString());
+                } else if ("id".equals(name)) {
+                    role.setId(in.nextString());
+                } else if ("rights".equals(name)) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        Right right = new Right();
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            String field = in.nextName();
+                            if (in.peek() == JsonToken.NULL) {
+                                in.nextNull();
+                            } else if ("id".equals(field)) {
+                                right.setId(in.nextString());
+                            } else if ("name".equals(field)) {
+                                right.setName(in.nextString());
+                            } else {
+                                in.skipValue();
+                            }
+                        }
+                        in.endObject();
+                        role.getRights().add(right);
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return role;
+        }
+    }
+
+    private static class UsersAdapter extends TypeAdapter<Users> {
+        private final UserAdapter user = new UserAdapter();
+
+        @Override
+        public void write(JsonWriter out, Users users) throws IOException {
+            out.beginObject();
+            if (!users.getUsers().isEmpty()) {
+                out.name("users").beginArray();
+                for (User u : users.getUsers()) {
+                    user.write(out, u);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Users read(JsonReader in) throws IOException {
+            Users users = new Users();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("users".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        users.getUsers().add(user.read(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return users;
+        }
+    }
+
+    private static class InstanceTypeAdapter extends TypeAdapter<InstanceType> {
+        @Override
+        public void write(JsonWriter out, InstanceType instance) throws IOException {
+            out.beginObject();
+            name(out, "description", instance.getDescription());
+            name(out, "region", instance.getRegion());
+            name(out, "instanceVersion", instance.getInstanceVersion());
+            name(out, "planId", instance.getPlanId());
+            name(out, "serviceGroupId", instance.getServiceGroupId());
+            name(out, "apiUrl", instance.getApiUrl());
+            name(out, "dashboardUrl", instance.getDashboardUrl());
+            name(out, "instanceAttributes", instance.getInstanceAttributes());
+
+            if (!instance.getLink().isEmpty()) {
+                out.name("link").beginArray();
+                for (LinkType link : instance.getLink()) {
+                    out.beginObject();
+                    name(out, "id", link.getId());
+                    name(out, "href", link.getHref());
+                    name(out, "type", link.getType());
+                    name(out, "name", link.getName());
+                    name(out, "rel", link.getRel());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+
+            name(out, "id", instance.getId());
+            name(out, "name", instance.getName());
+            out.endObject();
+        }
+
+        @Override
+        public InstanceType read(JsonReader in) throws IOException {
+            InstanceType instance = new InstanceType();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("description".equals(name)) {
+                    instance.setDescription(in.nextString());
+                } else if ("region".equals(name)) {
+                    instance.setRegion(in.nextString());
+                } else if ("instanceVersion".equals(name)) {
+                    instance.setInstanceVersion(in.nextString());
+                } else if ("planId".equals(name)) {
+                    instance.setPlanId(in.nextString());
+                } else if ("serviceGroupId".equals(name)) {
+                    instance.setServiceGroupId(in.nextString());
+                } else if ("apiUrl".equals(name)) {
+                    instance.setApiUrl(in.nextString());
+                } else if ("dashboardUrl".equals(name)) {
+                    instance.setDashboardUrl(in.nextString());
+                } else if ("instanceAttributes".equals(name)) {
+                    instance.setInstanceAttributes(in.nextString());
+                } else if ("link".equals(name)) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        instance.getLink().add(readLink(in));
+                    }
+                    in.endArray();
+                } else if ("id".equals(name)) {
+                    instance.setId(in.nextString());
+                } else if ("name".equals(name)) {
+                    instance.setName(in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return instance;
+        }
+
+        private static LinkType readLink(JsonReader in) throws IOException {
+            LinkType link = new LinkType();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("id".equals(name)) {
+                    link.setId(in.nextString());
+                } else if ("href".equals(name)) {
+                    link.setHref(in.nextString());
+                } else if ("type".equals(name)) {
+                    link.setType(in.nextString());
+                } else if ("name".equals(name)) {
+                    link.setName(in.nextString());
+                } else if ("rel".equals(name)) {
+                    link.setRel(in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return link;
+        }
+    }
+
+    private static class InstanceAttributeAdapter extends TypeAdapter<InstanceAttribute> {
+        @Override
+        public void write(JsonWriter out, InstanceAttribute attribute) throws IOException {
+            out.beginObject();
+            name(out, "orgName", attribute.getOrgName());
+            name(out, "sessionUri", attribute.getSessionUri());
+            out.endObject();
+        }
+
+        @Override
+        public InstanceAttribute read(JsonReader in) throws IOException {
+            InstanceAttribute attribute = new InstanceAttribute();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("orgName".equals(name)) {
+                    attribute.setOrgName(in.nextString());
+                } else if ("sessionUri".equals(name)) {
+                    attribute.setSessionUri(in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return attribute;
+        }
+    }
+
+    /*
+     * Writes a name/value pair, omitted when the value is null
+     */
+    private static void name(JsonWriter out, String name, String value) throws IOException {
+        if (null != value) {
+            out.name(name).value(value);
+        }
+    }
+
+    /*
+     * Writes a name/array of strings pair, omitted when the list is empty
+     */
+    private static void strings(JsonWriter out, String name, List<String> values)
+            throws IOException {
+        if (!values.isEmpty()) {
+            out.name(name).beginArray();
+            for (String value : values) {
+                out.value(value);
+            }
+            out.endArray();
+        }
+    }
+
+    private static void readStrings(JsonReader in, List<String> values) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else {
+                values.add(in.nextString());
+            }
+        }
+        in.endArray();
+    }
+}
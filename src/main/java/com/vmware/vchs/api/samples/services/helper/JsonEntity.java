@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.google.gson.JsonIOException;
+
+/**
+ * This class is a request body that writes an object as UTF-8 JSON with the JsonCodec Gson
+ * straight to the connection when the request is sent, instead of building the JSON as a String
+ * first. Like JaxbEntity it is sent chunked and encoded again for every attempt.
+ */
+public class JsonEntity extends AbstractHttpEntity {
+    private static final String UTF_8 = "UTF-8";
+
+    private final Object src;
+
+    /**
+     * @param src
+     *            the object to encode, it must not change until the request completes
+     */
+    public JsonEntity(Object src) {
+        this.src = src;
+        setContentType("application/json; charset=UTF-8");
+        setChunked(true);
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Returns the encoded JSON. This buffers the whole body, sending it uses writeTo().
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeTo(os);
+        return new ByteArrayInputStream(os.toByteArray());
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        // Not closed, that would close the connection's stream
+        Writer writer = new OutputStreamWriter(os, UTF_8);
+        try {
+            JsonCodec.gson().toJson(src, writer);
+        } catch (JsonIOException e) {
+            throw new IOException("Problem encoding " + src.getClass().getSimpleName(), e);
+        }
+
+        writer.flush();
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * This class answers requests in process, without a network, from handlers registered per method
+ * and path. Bound with HttpUtils.bindTransport() it lets the service helpers run against canned
+ * or computed responses, e.g. to measure the cost of the client side alone. Handlers are tried in
+ * the order they were added and the first whose method and path match answers; a request no
+ * handler matches gets a 404. This class is thread safe, handlers must be as well.
+ */
+public class LoopbackTransport implements HttpTransport {
+    /**
+     * Answers the requests of one route.
+     */
+    public interface Handler {
+        /**
+         * @param request
+         *            the request, its entity can be read with EntityUtils
+         * @return the response, never null
+         * @throws IOException
+         *             to fail the call as a network error would
+         */
+        HttpResponse handle(HttpRequestBase request) throws IOException;
+    }
+
+    /*
+     * A handler and the requests it answers
+     */
+    private static class Route {
+        final String method;
+        final Pattern path;
+        final Handler handler;
+
+        Route(String method, Pattern path, Handler handler) {
+            this.method = method;
+            this.path = path;
+            this.handler = handler;
+        }
+
+        boolean matches(HttpRequestBase request) {
+            return (null == method || method.equals(request.getMethod()))
+                    && path.matcher(request.getURI().getRawPath()).matches();
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * Adds a handler.
+     *
+     * @param method
+     *            the request method it answers, null for any
+     * @param pathRegex
+     *            a regular expression the whole raw path of the request must match, e.g.
+     *            "/api/sc/instances/.*"
+     * @param handler
+     *            the handler
+     * @return this transport
+     */
+    public LoopbackTransport on(String method, String pathRegex, Handler handler) {
+        routes.add(new Route(method, Pattern.compile(pathRegex), handler));
+        return this;
+    }
+
+    /**
+     * Adds a handler that answers every matching request with the same response.
+     *
+     * @param method
+     *            the request method it answers, null for any
+     * @param pathRegex
+     *            a regular expression the whole raw path of the request must match
+     * @param status
+     *            the status code of the response
+     * @param contentType
+     *            the Content-Type of the response, including the vCHS version and class
+     *            parameters the service helpers expect
+     * @param body
+     *            the response body, sent as UTF-8, null for none
+     * @return this transport
+     */
+    public LoopbackTransport on(String method, String pathRegex, final int status,
+            final String contentType, final String body) {
+        return on(method, pathRegex, new Handler() {
+            public HttpResponse handle(HttpRequestBase request) {
+                return response(status, contentType, body);
+            }
+        });
+    }
+
+    /**
+     * Creates a response with the passed in status and body.
+     *
+     * @param status
+     *            the status code
+     * @param contentType
+     *            the Content-Type of the body
+     * @param body
+     *            the body, sent as UTF-8, null for none
+     * @return a new response
+     */
+    public static HttpResponse response(int status, String contentType, String body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status,
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null));
+        if (null != body) {
+            ByteArrayEntity entity = new ByteArrayEntity(body.getBytes(UTF_8));
+            entity.setContentType(contentType);
+            response.setEntity(entity);
+        }
+
+        return response;
+    }
+
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        if (request.isAborted()) {
+            throw new IOException("Request aborted");
+        }
+
+        calls.incrementAndGet();
+        for (Route route : routes) {
+            if (route.matches(request)) {
+                return route.handler.handle(request);
+            }
+        }
+
+        return response(HttpStatus.SC_NOT_FOUND, "text/plain", "No loopback handler for "
+                + request.getMethod() + " " + request.getURI());
+    }
+
+    /**
+     * Returns the number of requests answered.
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public void shutdown() {
+    }
+}
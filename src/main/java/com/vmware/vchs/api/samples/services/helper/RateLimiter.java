@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class spaces out API calls made from any number of threads so that no more than a fixed
+ * number of calls per second are started. Each call to acquire() reserves the next free slot and
+ * sleeps until it is due, so callers are released at an even pace rather than in bursts.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private long nextFreeNanos;
+
+    /**
+     * @param permitsPerSecond
+     *            the maximum number of acquire() calls released per second, must be greater than 0
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        }
+
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the caller may start its call.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                // Unused slots are not saved up, so an idle limiter does not allow a burst
+                nextFreeNanos = now;
+            }
+
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += intervalNanos;
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * This class either records the calls sent through another transport, or replays recorded calls
+ * without a network. Recording buffers every response and keeps it as an Exchange, together with
+ * how long the call took; replaying answers each request with the next recorded exchange of the
+ * same method and url, in the order they were recorded, and keeps answering with the last one
+ * once they are used up, so a polling loop sees the same sequence of task states as when it was
+ * recorded. A request that was never recorded fails with an IOException. Replies are immediate
+ * unless a replay speed is set, then each takes its recorded time divided by the speed.
+ * ExchangeFile saves and loads the exchanges. This class is thread safe.
+ */
+public class RecordReplayTransport implements HttpTransport {
+    /**
+     * One recorded call: the request method and url and the complete response.
+     */
+    public static class Exchange {
+        private final String method;
+        private final String uri;
+        private final int status;
+        private final String reason;
+        private final Header[] headers;
+        private final byte[] body;
+        private final long millis;
+
+        /**
+         * @param method
+         *            the request method
+         * @param uri
+         *            the request url, including the query
+         * @param status
+         *            the response status code
+         * @param reason
+         *            the response reason phrase
+         * @param headers
+         *            the response headers
+         * @param body
+         *            the response body, null for none
+         * @param millis
+         *            how long the call took, up to reading the whole body
+         */
+        public Exchange(String method, String uri, int status, String reason, Header[] headers,
+                byte[] body, long millis) {
+            this.method = method;
+            this.uri = uri;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+            this.millis = millis;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public Header[] getHeaders() {
+            return headers.clone();
+        }
+
+        /**
+         * Returns the response body, null if there was none.
+         */
+        public byte[] getBody() {
+            return null == body ? null : body.clone();
+        }
+
+        /**
+         * Returns how long the call took when it was recorded.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Returns a new response with the recorded status, headers and body.
+         */
+        public HttpResponse toResponse() {
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, reason);
+            response.setHeaders(headers);
+            if (null != body) {
+                ByteArrayEntity entity = new ByteArrayEntity(body);
+                entity.setContentType(response.getFirstHeader("Content-Type"));
+                entity.setContentEncoding(response.getFirstHeader("Content-Encoding"));
+                response.setEntity(entity);
+            }
+
+            return response;
+        }
+
+        String key() {
+            return key(method, uri);
+        }
+
+        static String key(String method, String uri) {
+            return method + " " + uri;
+        }
+    }
+
+    // The transport recorded calls are sent with, null while replaying
+    private final HttpTransport delegate;
+    private final List<Exchange> exchanges = new ArrayList<Exchange>();
+    // The exchanges still to replay per method and url
+    private final Map<String, LinkedList<Exchange>> pending =
+            new HashMap<String, LinkedList<Exchange>>();
+    private volatile double replaySpeed;
+
+    /**
+     * Creates a transport that sends every call with delegate and records it. The delegate is
+     * shut down with this transport, so pass one of its own, e.g. new ApacheTransport(8), rather
+     * than the one HttpUtils.setTransport() would shut down when this one replaces it.
+     */
+    public RecordReplayTransport(HttpTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Creates a transport that replays the passed in exchanges.
+     */
+    public RecordReplayTransport(List<Exchange> recorded) {
+        this.delegate = null;
+        for (Exchange exchange : recorded) {
+            exchanges.add(exchange);
+
+            LinkedList<Exchange> queue = pending.get(exchange.key());
+            if (null == queue) {
+                queue = new LinkedList<Exchange>();
+                pending.put(exchange.key(), queue);
+            }
+
+            queue.add(exchange);
+        }
+    }
+
+    /**
+     * Returns true if calls are recorded, false if they are replayed.
+     */
+    public boolean isRecording() {
+        return null != delegate;
+    }
+
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        if (null == delegate) {
+            return replay(request);
+        }
+
+        long start = System.nanoTime();
+        HttpResponse response = delegate.execute(request);
+        HttpEntity entity = response.getEntity();
+        // Reading the body releases the connection
+        byte[] body = null == entity ? null : EntityUtils.toByteArray(entity);
+
+        // A response not read from the wire, e.g. a loopback one, may carry these on the entity
+        List<Header> headers = new ArrayList<Header>(Arrays.asList(response.getAllHeaders()));
+        if (null != entity && null != entity.getContentType()
+                && !response.containsHeader("Content-Type")) {
+            headers.add(entity.getContentType());
+        }
+
+        if (null != entity && null != entity.getContentEncoding()
+                && !response.containsHeader("Content-Encoding")) {
+            headers.add(entity.getContentEncoding());
+        }
+
+        Exchange exchange = new Exchange(request.getMethod(), request.getURI().toString(),
+                response.getStatusLine().getStatusCode(), response.getStatusLine()
+                        .getReasonPhrase(), headers.toArray(new Header[headers.size()]), body,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        synchronized (this) {
+            exchanges.add(exchange);
+        }
+
+        return exchange.toResponse();
+    }
+
+    private HttpResponse replay(HttpRequestBase request) throws IOException {
+        if (request.isAborted()) {
+            throw new IOException("Request aborted");
+        }
+
+        String key = Exchange.key(request.getMethod(), request.getURI().toString());
+        Exchange exchange;
+        synchronized (this) {
+            LinkedList<Exchange> queue = pending.get(key);
+            if (null == queue) {
+                throw new IOException("No recorded response for " + key);
+            }
+
+            exchange = queue.size() > 1 ? queue.removeFirst() : queue.getFirst();
+        }
+
+        double speed = replaySpeed;
+        if (speed > 0 && exchange.getMillis() > 0) {
+            try {
+                Thread.sleep((long) (exchange.getMillis() / speed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying " + key);
+            }
+        }
+
+        return exchange.toResponse();
+    }
+
+    /**
+     * Sets how fast calls are replayed: 0 answers right away, 1 takes as long as the recorded call
+     * took, 10 ten times less.
+     */
+    public void setReplaySpeed(double speed) {
+        this.replaySpeed = speed;
+    }
+
+    /**
+     * Returns the exchanges recorded so far, or the ones being replayed, in order.
+     */
+    public synchronized List<Exchange> getExchanges() {
+        return new ArrayList<Exchange>(exchanges);
+    }
+
+    /**
+     * Shuts down the transport recorded calls were sent with.
+     */
+    public void shutdown() {
+        if (null != delegate) {
+            delegate.shutdown();
+        }
+    }
+}
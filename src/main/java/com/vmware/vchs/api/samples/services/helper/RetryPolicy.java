@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * This class decides whether and when HttpUtils.httpInvoke() retries a call. Only idempotent
+ * requests (GET, HEAD and OPTIONS, which includes the task polls of Compute.waitForTaskCompletion)
+ * are retried, after an IOException or a 429, 502, 503 or 504 response, up to maxAttempts calls
+ * in total.
+ *
+ * The delay before a retry is drawn at random between 0 and baseDelayMillis * 2^retry, capped at
+ * maxDelayMillis, so clients that failed together do not retry together. A Retry-After header
+ * replaces the computed delay; if it asks for more than maxDelayMillis the response is returned
+ * as it is.
+ *
+ * Retries are paid for from a budget shared by all calls using the policy: every first attempt
+ * adds budgetRatio of a retry to it and every retry takes one, never holding more than
+ * budgetReserve. During an outage retries therefore add at most budgetRatio to the load once the
+ * reserve is spent, instead of multiplying it by maxAttempts. This class is thread safe.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private final double budgetReserve;
+    private final Random random = new Random();
+    private double budget;
+
+    /**
+     * Creates a policy of 4 attempts, a 200 ms base delay, a 10 second maximum delay and a budget
+     * of 1 retry per 5 calls with a reserve of 10 retries.
+     */
+    public RetryPolicy() {
+        this(4, 200, 10000, 0.2, 10);
+    }
+
+    /**
+     * @param maxAttempts
+     *            the maximum number of calls made for one request, 1 disables retries
+     * @param baseDelayMillis
+     *            the upper bound of the delay before the first retry, doubled for each retry
+     * @param maxDelayMillis
+     *            the upper bound of any delay, including one asked for by Retry-After
+     * @param budgetRatio
+     *            the fraction of a retry earned by each first attempt
+     * @param budgetReserve
+     *            the maximum number of retries that can be saved up, the budget starts full
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+            double budgetRatio, double budgetReserve) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetRatio = budgetRatio;
+        this.budgetReserve = budgetReserve;
+        this.budget = budgetReserve;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns true if the passed in request may be sent more than once.
+     */
+    public boolean isRetryable(HttpRequestBase request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Returns true if the passed in response status is worth retrying.
+     */
+    public boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Called once per request before its first attempt, earns budgetRatio of a retry.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(budgetReserve, budget + budgetRatio);
+    }
+
+    /**
+     * Takes one retry from the budget.
+     *
+     * @return false if the budget is spent and the call must not be retried
+     */
+    public synchronized boolean acquireRetry() {
+        if (budget < 1) {
+            return false;
+        }
+
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before the passed in retry.
+     *
+     * @param retry
+     *            the number of the retry, starting at 1
+     * @param response
+     *            the failed response, or null if the call threw an IOException
+     * @return the delay, or -1 if the server asked for a longer delay than maxDelayMillis
+     */
+    public long getDelayMillis(int retry, HttpResponse response) {
+        long retryAfter = null != response ? getRetryAfterMillis(response) : -1;
+        if (retryAfter >= 0) {
+            return retryAfter <= maxDelayMillis ? retryAfter : -1;
+        }
+
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    /*
+     * Returns the delay asked for by a Retry-After header in seconds or as an HTTP date, -1 if
+     * there is none
+     */
+    private static long getRetryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (null == header || null == header.getValue()) {
+            return -1;
+        }
+
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return null == date ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class coalesces concurrent calls for the same key: the first caller runs the loader and
+ * every caller that asks for the key while it runs waits for it and gets the same value, or the
+ * same exception. Nothing is kept once the call completes, so the next caller runs the loader
+ * again; this removes duplicate concurrent work without turning into a cache. This class is
+ * thread safe.
+ *
+ * @param <K>
+ *            the key type, compared with equals()
+ * @param <V>
+ *            the value type, shared by all callers of one call
+ */
+public class SingleFlight<K, V> {
+    /*
+     * One running call and its outcome
+     */
+    private static class Call<V> {
+        final CountDownLatch done = new CountDownLatch(1);
+        V value;
+        RuntimeException failure;
+        Error error;
+
+        V result() {
+            if (null != error) {
+                throw error;
+            }
+
+            if (null != failure) {
+                throw failure;
+            }
+
+            return value;
+        }
+    }
+
+    private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Returns the value of the call running for key, or runs loader if there is none.
+     *
+     * @param key
+     *            identifies calls that return the same value
+     * @param loader
+     *            computes the value, checked exceptions are wrapped in a RuntimeException
+     * @return the value computed by the loader of the call
+     */
+    public V execute(K key, Callable<? extends V> loader) {
+        Call<V> call = new Call<V>();
+        Call<V> running = calls.putIfAbsent(key, call);
+        if (null != running) {
+            shared.incrementAndGet();
+            try {
+                running.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(new InterruptedIOException("Interrupted while waiting"
+                        + " for the call of " + key));
+            }
+
+            return running.result();
+        }
+
+        try {
+            call.value = loader.call();
+        } catch (RuntimeException e) {
+            call.failure = e;
+        } catch (Error e) {
+            call.error = e;
+        } catch (Exception e) {
+            call.failure = new RuntimeException(e);
+        } finally {
+            calls.remove(key, call);
+            call.done.countDown();
+        }
+
+        return call.result();
+    }
+
+    /**
+     * Returns the number of callers that got the value of another caller's call.
+     */
+    public long getShared() {
+        return shared.get();
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * This class records spans, timed and named steps of a run such as a workflow step of a sample or
+ * an HTTP call made by HttpUtils, and writes them as a Chrome trace event file that
+ * chrome://tracing and Perfetto show as a timeline. A span started on a thread is the child of
+ * the span that thread has open; httpInvokeAsync() carries the parent over to its worker thread
+ * with attach().
+ * Spans are exported once ended, up to maxSpans of them. This class is thread safe.
+ *
+ * NONE records nothing, so code can be traced unconditionally:
+ *
+ * <pre>
+ * Span span = tracer.start("compute login", "workflow");
+ * try {
+ *     ...
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ */
+public class Tracer {
+    /**
+     * A tracer that records nothing.
+     */
+    public static final Tracer NONE = new Tracer(0);
+
+    /**
+     * One timed step. Attributes are exported as the args of the trace event.
+     */
+    public static class Span {
+        private final Tracer tracer;
+        private final long id;
+        private final Span parent;
+        private final String name;
+        private final String category;
+        private final long startNanos;
+        private final Thread thread;
+        private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        private long endNanos = -1;
+
+        Span(Tracer tracer, long id, Span parent, String name, String category) {
+            this.tracer = tracer;
+            this.id = id;
+            this.parent = parent;
+            this.name = name;
+            this.category = category;
+            this.thread = Thread.currentThread();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Sets an attribute, e.g. a status code or a payload size.
+         *
+         * @return this span
+         */
+        public synchronized Span set(String key, Object value) {
+            if (null != tracer) {
+                attributes.put(key, value);
+            }
+
+            return this;
+        }
+
+        /**
+         * Ends the span and makes its parent the open span of the thread again. Ending a span
+         * twice has no effect.
+         */
+        public void end() {
+            if (null != tracer) {
+                tracer.end(this);
+            }
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Span getParent() {
+            return parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns how long the span took in milliseconds, or until now if it is still open.
+         */
+        public synchronized long getMillis() {
+            long end = endNanos < 0 ? System.nanoTime() : endNanos;
+            return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+        }
+    }
+
+    // Returned by NONE, never recorded
+    private static final Span NO_SPAN = new Span(null, 0, null, "", "");
+
+    private final ThreadLocal<Span> current = new ThreadLocal<Span>();
+    private final AtomicLong ids = new AtomicLong();
+    private final List<Span> ended = new ArrayList<Span>();
+    private final long originNanos = System.nanoTime();
+    private final int maxSpans;
+    private long dropped;
+
+    /**
+     * Creates a tracer that keeps up to 100000 spans.
+     */
+    public Tracer() {
+        this(100000);
+    }
+
+    /**
+     * @param maxSpans
+     *            the number of ended spans kept for export, later ones are counted and dropped;
+     *            0 records nothing
+     */
+    public Tracer(int maxSpans) {
+        this.maxSpans = maxSpans;
+    }
+
+    /**
+     * Starts a span as the child of the span open on the current thread and makes it the open
+     * one.
+     *
+     * @param name
+     *            the name shown on the timeline
+     * @param category
+     *            the category, e.g. "workflow" or "http"
+     * @return the span, end() must be called on it on the same thread
+     */
+    public Span start(String name, String category) {
+        if (maxSpans == 0) {
+            return NO_SPAN;
+        }
+
+        Span span = new Span(this, ids.incrementAndGet(), current.get(), name, category);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Returns the span open on the current thread, or null.
+     */
+    public Span getCurrentSpan() {
+        return current.get();
+    }
+
+    /**
+     * Makes the passed in span, started on another thread, the parent of the spans started on
+     * the current thread.
+     *
+     * @param span
+     *            the span, null to detach
+     * @return the span open on the current thread before
+     */
+    public Span attach(Span span) {
+        Span previous = current.get();
+        if (null == span) {
+            current.remove();
+        } else {
+            current.set(span);
+        }
+
+        return previous;
+    }
+
+    private void end(Span span) {
+        synchronized (span) {
+            if (span.endNanos >= 0) {
+                return;
+            }
+
+            span.endNanos = System.nanoTime();
+        }
+
+        if (current.get() == span) {
+            attach(span.parent);
+        }
+
+        synchronized (this) {
+            if (ended.size() < maxSpans) {
+                ended.add(span);
+            } else {
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ended spans.
+     */
+    public synchronized int getSpanCount() {
+        return ended.size();
+    }
+
+    /**
+     * Writes the ended spans to the passed in file in the Chrome trace event format: a complete
+     * ("X") event per span with its attributes, span id and parent id as args, and the thread
+     * names as metadata events.
+     *
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public void write(File file) throws IOException {
+        List<Span> spans;
+        long droppedSpans;
+        synchronized (this) {
+            spans = new ArrayList<Span>(ended);
+            droppedSpans = dropped;
+        }
+
+        Map<Long, String> threads = new TreeMap<Long, String>();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(new BufferedOutputStream(
+                new FileOutputStream(file)), "UTF-8"));
+        try {
+            out.beginObject();
+            out.name("displayTimeUnit").value("ms");
+            out.name("traceEvents").beginArray();
+            for (Span span : spans) {
+                threads.put(span.thread.getId(), span.thread.getName());
+                writeSpan(out, span);
+            }
+
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                out.beginObject();
+                out.name("name").value("thread_name");
+                out.name("ph").value("M");
+                out.name("pid").value(1);
+                out.name("tid").value(thread.getKey());
+                out.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+                out.endObject();
+            }
+            out.endArray();
+
+            out.name("otherData").beginObject();
+            out.name("droppedSpans").value(droppedSpans);
+            out.endObject();
+            out.endObject();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeSpan(JsonWriter out, Span span) throws IOException {
+        out.beginObject();
+        out.name("name").value(span.name);
+        out.name("cat").value(span.category);
+        out.name("ph").value("X");
+        out.name("ts").value(TimeUnit.NANOSECONDS.toMicros(span.startNanos - originNanos));
+        out.name("dur").value(TimeUnit.NANOSECONDS.toMicros(span.endNanos - span.startNanos));
+        out.name("pid").value(1);
+        out.name("tid").value(span.thread.getId());
+
+        out.name("args").beginObject();
+        out.name("span").value(span.id);
+        if (null != span.parent) {
+            out.name("parent").value(span.parent.id);
+        }
+
+        synchronized (span) {
+            for (Map.Entry<String, Object> attribute : span.attributes.entrySet()) {
+                Object value = attribute.getValue();
+                out.name(attribute.getKey());
+                if (value instanceof Number) {
+                    out.value((Number) value);
+                } else if (value instanceof Boolean) {
+                    out.value(((Boolean) value).booleanValue());
+                } else {
+                    out.value(null == value ? null : value.toString());
+                }
+            }
+        }
+        out.endObject();
+
+        out.endObject();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import com.vmware.vchs.api.samples.services.cost.FixedPointCost;
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+
+/**
+ * This class reads BilledUsage and BillableUsage XML documents with a StAX pull parser and hands
+ * every Entity and Billable element to a UsageVisitor as soon as it has been read. Nothing but the
+ * current entity and billable is kept, so memory use does not grow with the size of the response.
+ * Costs are parsed straight to their fixed-point value with FixedPointCost.parse(), without a
+ * BigDecimal in between.
+ */
+public class UsageStreamParser {
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // The documents come from the network, never resolve a DTD or external entity
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Executes the passed in request and, if the response status is 200 OK, streams the response
+     * body through parse(). The connection is released once the body has been read.
+     *
+     * @param request
+     *            the usage request to execute
+     * @param visitor
+     *            the visitor to call for every entity and billable
+     * @return true if the response status was 200 OK and the body was visited
+     */
+    public static boolean visit(HttpRequestBase request, final UsageVisitor visitor) {
+        Boolean visited = HttpUtils.httpInvoke(request, new ResponseHandler<Boolean>() {
+            public Boolean handleResponse(HttpResponse response) throws IOException {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                    return Boolean.FALSE;
+                }
+
+                HttpEntity entity = response.getEntity();
+                if (null == entity) {
+                    return Boolean.FALSE;
+                }
+
+                InputStream is = entity.getContent();
+                try {
+                    parse(is, visitor);
+                } finally {
+                    is.close();
+                }
+
+                return Boolean.TRUE;
+            }
+        });
+
+        return Boolean.TRUE.equals(visited);
+    }
+
+    /**
+     * Parses the passed in BilledUsage or BillableUsage XML document, calling the visitor for every
+     * entity and billable.
+     *
+     * @param is
+     *            the XML document
+     * @param visitor
+     *            the visitor to call
+     */
+    public static void parse(InputStream is, UsageVisitor visitor) {
+        XMLStreamReader reader = null;
+
+        try {
+            reader = FACTORY.createXMLStreamReader(is);
+
+            EntityType entity = null;
+            BillableType billable = null;
+            long cost = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if ("Entity".equals(name)) {
+                        entity = new EntityType();
+                        entity.setId(reader.getAttributeValue(null, "id"));
+                        entity.setName(reader.getAttributeValue(null, "name"));
+                        entity.setEntityType(reader.getAttributeValue(null, "entityType"));
+                        visitor.visitEntity(entity);
+                    } else if ("Billable".equals(name) && null != entity) {
+                        billable = new BillableType();
+                        cost = 0;
+                    } else if (null != billable) {
+                        // getElementText() leaves the reader on the matching END_ELEMENT
+                        if ("Cost".equals(name)) {
+                            cost = FixedPointCost.parse(reader.getElementText());
+                        } else {
+                            setField(billable, name, reader.getElementText());
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if ("Billable".equals(name) && null != billable) {
+                        visitor.visitBillable(entity, billable, cost);
+                        billable = null;
+                    } else if ("Entity".equals(name) && null != entity) {
+                        visitor.endEntity(entity);
+                        entity = null;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Problem parsing usage document", e);
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // the stream itself is closed by the caller
+                }
+            }
+        }
+    }
+
+    private static void setField(BillableType billable, String name, String text) {
+        if ("Name".equals(name)) {
+            billable.setName(text);
+        } else if ("Usage".equals(name)) {
+            billable.setUsage(toDecimal(text));
+        } else if ("Unit".equals(name)) {
+            billable.setUnit(text);
+        } else if ("Rate".equals(name)) {
+            billable.setRate(toDecimal(text));
+        } else if ("Currency".equals(name)) {
+            billable.setCurrency(text);
+        }
+    }
+
+    private static BigDecimal toDecimal(String text) {
+        String trimmed = text.trim();
+        return trimmed.length() == 0 ? null : new BigDecimal(trimmed);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import com.vmware.vchs.vms.billabledata.v5.BillableType;
+import com.vmware.vchs.vms.billabledata.v5.EntityType;
+
+/**
+ * This interface is implemented by callers of the visit variants of the Billing and Metering
+ * calls. The callbacks are made while the response is being read, in document order, so the
+ * full usage document is never held in memory.
+ */
+public interface UsageVisitor {
+    /**
+     * Called when an Entity element starts. The entity has its id, name and entityType set but no
+     * BillableList, its billables are passed to visitBillable() one at a time.
+     *
+     * @param entity
+     *            the entity being read
+     */
+    void visitEntity(EntityType entity);
+
+    /**
+     * Called for every Billable element of the current entity, once it has been fully read. The
+     * Cost element is converted straight to its fixed-point value, the billable has every other
+     * field set but not its cost.
+     *
+     * @param entity
+     *            the entity the billable belongs to
+     * @param billable
+     *            the billable
+     * @param cost
+     *            the fixed-point cost of the billable (see FixedPointCost), 0 if it has none
+     */
+    void visitBillable(EntityType entity, BillableType billable, long cost);
+
+    /**
+     * Called when the Entity element ends, after all its billables have been visited.
+     *
+     * @param entity
+     *            the entity that ended
+     */
+    void endEntity(EntityType entity);
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.helper;
+
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This interface receives the users of a streamed IAM Users response one at a time, see
+ * IAM.visitUsers().
+ */
+public interface UserVisitor {
+    /**
+     * Called for every user in the order they appear in the response.
+     *
+     * @param user
+     *            the user that was just read
+     */
+    void visitUser(User user);
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.iam;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.HttpUtils;
+import com.vmware.vchs.api.samples.services.helper.JsonCodec;
+import com.vmware.vchs.api.samples.services.helper.RateLimiter;
+import com.vmware.vchs.api.samples.services.helper.UserVisitor;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This class imports users into IAM from a CSV or JSON file and exports the IAM users to one.
+ *
+ * On import every row is turned into an IAM.createUser call, or, when the row has an id, an
+ * IAM.getUser call followed by an IAM.updateUser call with the fields set in the row copied onto
+ * the user as returned by IAM, as updates replace the whole user. A row that can not be read as a
+ * user is reported as failed and the import goes on. Rows are read one at a time and handed to a fixed pool of worker threads, at most
+ * a few rows ahead of the workers, and a RateLimiter spaces the calls out so IAM is not flooded.
+ * The result of every row is appended to a CSV results file as soon as its call completes. Export
+ * streams IAM.visitUsers straight into the output file.
+ *
+ * CSV files have a header row naming the columns (id, userName, email, givenName, familyName,
+ * state, roles, companyId), JSON files hold an array of users or a Users object. The format is
+ * chosen by the file extension. Call HttpUtils.enableConnectionPool() first so the workers share
+ * pooled connections.
+ */
+public class BulkUserPipeline {
+    /**
+     * The outcome of an import.
+     */
+    public static class Summary {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        public int getCreated() {
+            return created.get();
+        }
+
+        public int getUpdated() {
+            return updated.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+    }
+
+    /*
+     * Reads one user at a time from an input file
+     */
+    interface UserSource extends Closeable {
+        /**
+         * Returns the next user, or null at the end of the input.
+         *
+         * @throws InvalidRowException
+         *             if the next row is not a valid user, the source can still be read on
+         */
+        User next() throws IOException;
+    }
+
+    /*
+     * Thrown by UserSource.next() for a row that was skipped as it is not a valid user
+     */
+    static class InvalidRowException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidRowException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final String SCIM_CORE_SCHEMA = "urn:scim:schemas:core:1.0";
+
+    private final String url;
+    private final String authToken;
+    private final String version;
+    private final int concurrency;
+    private final RateLimiter limiter;
+
+    /**
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param concurrency
+     *            the maximum number of concurrent IAM calls
+     * @param callsPerSecond
+     *            the maximum number of IAM calls started per second
+     */
+    public BulkUserPipeline(String url, String authToken, String version, int concurrency,
+            double callsPerSecond) {
+        this.url = url;
+        this.authToken = authToken;
+        this.version = version;
+        this.concurrency = concurrency;
+        this.limiter = new RateLimiter(callsPerSecond);
+    }
+
+    /**
+     * Creates or updates every user in the input file, writing one result row per user to the
+     * results file. A failed row does not stop the import.
+     *
+     * @param input
+     *            the CSV or JSON file to read the users from
+     * @param results
+     *            the CSV file to write the result of each row to
+     * @return the number of created, updated and failed rows
+     */
+    public Summary importUsers(File input, File results) throws IOException, InterruptedException {
+        final Summary summary = new Summary();
+        UserSource source = open(input);
+        final Writer out;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(results),
+                    "UTF-8"));
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+
+        ExecutorService workers = new ThreadPoolExecutor(concurrency, concurrency, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreads());
+
+        // Bounds the rows read ahead of the workers, so the input is never loaded in full
+        final Semaphore slots = new Semaphore(concurrency * 2);
+
+        try {
+            out.write(UserCsv.join(new String[] { "row", "action", "result", "status", "id",
+                    "userName", "millis", "message" }));
+            out.write('\n');
+
+            int row = 0;
+            while (true) {
+                User user;
+                try {
+                    user = source.next();
+                } catch (InvalidRowException e) {
+                    summary.failed.incrementAndGet();
+                    writeResult(out, new String[] { String.valueOf(++row), "read", "FAILED", "",
+                            "", "", "0", String.valueOf(e.getMessage()) });
+                    continue;
+                }
+
+                if (null == user) {
+                    break;
+                }
+
+                final int current = ++row;
+                final User next = user;
+
+                slots.acquire();
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            apply(current, next, summary, out);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            source.close();
+            out.close();
+        }
+
+        return summary;
+    }
+
+    /**
+     * Writes every IAM user to the output file, one user at a time as the Users response is read.
+     *
+     * @param output
+     *            the CSV or JSON file to write the users to
+     * @return the number of users written, or -1 if the users could not be retrieved
+     */
+    public int exportUsers(File output) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        boolean ok;
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output),
+                "UTF-8"));
+        try {
+            if (isJson(output)) {
+                final Gson g = JsonCodec.gson();
+                final JsonWriter writer = new JsonWriter(out);
+                writer.beginArray();
+                ok = IAM.visitUsers(url, authToken, version, new UserVisitor() {
+                    public void visitUser(User user) {
+                        g.toJson(user, User.class, writer);
+                        count.incrementAndGet();
+                    }
+                });
+                writer.endArray();
+                writer.flush();
+            } else {
+                final Writer csv = out;
+                csv.write(UserCsv.header());
+                csv.write('\n');
+                ok = IAM.visitUsers(url, authToken, version, new UserVisitor() {
+                    public void visitUser(User user) {
+                        try {
+                            csv.write(UserCsv.toRow(user));
+                            csv.write('\n');
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+
+                        count.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            out.close();
+        }
+
+        return ok ? count.get() : -1;
+    }
+
+    private void apply(int row, User user, Summary summary, Writer out) {
+        boolean update = null != user.getId();
+        String result = "FAILED";
+        String status = "";
+        String id = user.getId();
+        String message = "";
+        long start = System.currentTimeMillis();
+
+        try {
+            limiter.acquire();
+            start = System.currentTimeMillis();
+
+            if (update) {
+                // Updates replace the whole user, so only the fields set in the row are changed
+                User current = IAM.getUser(url, authToken, id, version);
+                if (null == current) {
+                    message = "user not found";
+                } else {
+                    if (null != user.getUserName()) {
+                        current.setUserName(user.getUserName());
+                    }
+                    UserReconciler.copyManagedFields(user, current);
+
+                    int code = IAM.updateUser(url, authToken, current, version);
+                    status = String.valueOf(code);
+                    if (code == HttpStatus.SC_NO_CONTENT) {
+                        result = "OK";
+                        summary.updated.incrementAndGet();
+                    }
+                }
+            } else {
+                if (user.getSchemas().isEmpty()) {
+                    user.getSchemas().add(SCIM_CORE_SCHEMA);
+                }
+
+                User created = IAM.createUser(url, authToken, user, version);
+                if (null != created) {
+                    result = "OK";
+                    status = String.valueOf(HttpStatus.SC_CREATED);
+                    id = created.getId();
+                    summary.created.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message = "interrupted";
+        } catch (RuntimeException e) {
+            message = String.valueOf(e.getMessage());
+        }
+
+        if (!"OK".equals(result)) {
+            summary.failed.incrementAndGet();
+        }
+
+        writeResult(out, new String[] { String.valueOf(row), update ? "update" : "create",
+                result, status, id, user.getUserName(),
+                String.valueOf(System.currentTimeMillis() - start), message });
+    }
+
+    private static void writeResult(Writer out, String[] fields) {
+        String line = UserCsv.join(fields);
+
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.write('\n');
+            } catch (IOException e) {
+                System.out.println("Could not write result of row " + fields[0] + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the passed in CSV or JSON file for reading one user at a time.
+     */
+    static UserSource open(final File input) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(
+                input), "UTF-8"));
+
+        if (isJson(input)) {
+            final Gson g = JsonCodec.gson();
+            final JsonParser parser = new JsonParser();
+            final JsonReader reader = new JsonReader(in);
+
+            try {
+                // Either [ {user}, ... ] or { "users" : [ {user}, ... ] }
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext() && !"users".equals(reader.nextName())) {
+                        reader.skipValue();
+                    }
+                }
+
+                reader.beginArray();
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+
+            return new UserSource() {
+                public User next() throws IOException {
+                    if (!reader.hasNext()) {
+                        return null;
+                    }
+
+                    // Read the whole element first, so a user that does not bind leaves the
+                    // reader at the next one; a syntax error can not be skipped
+                    JsonElement element;
+                    try {
+                        element = parser.parse(reader);
+                    } catch (JsonParseException e) {
+                        throw new IOException("Malformed JSON in " + input, e);
+                    }
+
+                    try {
+                        return g.fromJson(element, User.class);
+                    } catch (JsonParseException e) {
+                        throw new InvalidRowException("Invalid user: " + e.getMessage(), e);
+                    }
+                }
+
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+
+        String header = in.readLine();
+        if (null == header) {
+            in.close();
+            throw new IOException("Missing header row in " + input);
+        }
+
+        final UserCsv csv = new UserCsv(UserCsv.split(header));
+        return new UserSource() {
+            public User next() throws IOException {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.trim().length() > 0) {
+                        return csv.toUser(UserCsv.split(line));
+                    }
+                }
+
+                return null;
+            }
+
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private static boolean isJson(File file) {
+        return file.getName().toLowerCase().endsWith(".json");
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bulk-users-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.iam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.vchs.iam.v2.ObjectFactory;
+import com.vmware.vchs.iam.v2.Role;
+import com.vmware.vchs.iam.v2.Roles;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This class converts users to and from CSV rows. The columns are identified by a header row, so
+ * they may appear in any order and unknown columns are ignored. Roles are written as role names
+ * separated by ';'. Fields may be quoted, but a quoted field can not span lines.
+ */
+class UserCsv {
+    static final String ID = "id";
+    static final String USER_NAME = "userName";
+    static final String EMAIL = "email";
+    static final String GIVEN_NAME = "givenName";
+    static final String FAMILY_NAME = "familyName";
+    static final String STATE = "state";
+    static final String ROLES = "roles";
+    static final String COMPANY_ID = "companyId";
+
+    static final String[] COLUMNS = new String[] { ID, USER_NAME, EMAIL, GIVEN_NAME, FAMILY_NAME,
+            STATE, ROLES, COMPANY_ID };
+
+    private final String[] header;
+
+    /**
+     * @param header
+     *            the parsed header row
+     */
+    UserCsv(String[] header) {
+        this.header = header;
+    }
+
+    /**
+     * Creates a user from a parsed row, empty fields are left unset.
+     */
+    User toUser(String[] row) {
+        User user = new ObjectFactory().createUser();
+
+        for (int i = 0; i < header.length && i < row.length; i++) {
+            String value = row[i].trim();
+            if (value.length() == 0) {
+                continue;
+            }
+
+            String column = header[i].trim();
+            if (ID.equalsIgnoreCase(column)) {
+                user.setId(value);
+            } else if (USER_NAME.equalsIgnoreCase(column)) {
+                user.setUserName(value);
+            } else if (EMAIL.equalsIgnoreCase(column)) {
+                user.setEmail(value);
+            } else if (GIVEN_NAME.equalsIgnoreCase(column)) {
+                user.setGivenName(value);
+            } else if (FAMILY_NAME.equalsIgnoreCase(column)) {
+                user.setFamilyName(value);
+            } else if (STATE.equalsIgnoreCase(column)) {
+                user.setState(value);
+            } else if (COMPANY_ID.equalsIgnoreCase(column)) {
+                user.setCompanyId(value);
+            } else if (ROLES.equalsIgnoreCase(column)) {
+                Roles roles = new Roles();
+                for (String name : value.split(";")) {
+                    if (name.trim().length() > 0) {
+                        Role role = new Role();
+                        role.setName(name.trim());
+                        roles.getRoles().add(role);
+                    }
+                }
+
+                user.setRoles(roles);
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Returns the header row written by toRow().
+     */
+    static String header() {
+        return join(COLUMNS);
+    }
+
+    /**
+     * Returns the passed in user as a CSV row matching header().
+     */
+    static String toRow(User user) {
+        StringBuilder roles = new StringBuilder();
+        if (null != user.getRoles()) {
+            for (Role role : user.getRoles().getRoles()) {
+                if (roles.length() > 0) {
+                    roles.append(';');
+                }
+
+                roles.append(role.getName());
+            }
+        }
+
+        return join(new String[] { user.getId(), user.getUserName(), user.getEmail(),
+                user.getGivenName(), user.getFamilyName(), user.getState(), roles.toString(),
+                user.getCompanyId() });
+    }
+
+    /**
+     * Joins the passed in fields into a CSV row, quoting fields where needed. Null fields are
+     * written as empty fields.
+     */
+    static String join(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+
+            String field = fields[i];
+            if (null == field) {
+                continue;
+            }
+
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                    || field.indexOf('\r') >= 0) {
+                sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(field);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Splits a CSV row into its fields.
+     */
+    static String[] split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+}
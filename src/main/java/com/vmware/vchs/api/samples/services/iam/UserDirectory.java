@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.iam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.UserVisitor;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This class keeps a local copy of the IAM users indexed by id, email, userName and role name, so
+ * lookups are hash map reads instead of an IAM.getUsers download and a scan. Email, userName and
+ * role lookups are case insensitive.
+ *
+ * Each sync streams IAM.visitUsers into a new set of indexes and compares every user's
+ * UserFingerprint with the one already held, so the users that were added, changed or removed are
+ * known. When nothing changed the current indexes are kept, otherwise the new ones replace them in
+ * a single volatile write. Readers never lock and always see one complete snapshot. sync() can be
+ * called directly or on a schedule with start().
+ */
+public class UserDirectory {
+    /**
+     * Receives the users that changed in a sync. Called on the syncing thread.
+     */
+    public interface Listener {
+        /**
+         * Called after a sync that found at least one change.
+         *
+         * @param added
+         *            users that were not in the directory before
+         * @param updated
+         *            users whose fingerprint changed
+         * @param removed
+         *            users that are no longer returned by IAM
+         */
+        void onChange(List<User> added, List<User> updated, List<User> removed);
+    }
+
+    /*
+     * One immutable, complete set of indexes
+     */
+    private static class Snapshot {
+        final Map<String, User> byId = new HashMap<String, User>();
+        final Map<String, Long> fingerprints = new HashMap<String, Long>();
+        final Map<String, User> byEmail = new HashMap<String, User>();
+        final Map<String, User> byUserName = new HashMap<String, User>();
+        final Map<String, List<User>> byRole = new HashMap<String, List<User>>();
+
+        void add(User user, long fingerprint) {
+            byId.put(user.getId(), user);
+            fingerprints.put(user.getId(), fingerprint);
+
+            if (null != user.getEmail()) {
+                byEmail.put(user.getEmail().toLowerCase(), user);
+            }
+
+            if (null != user.getUserName()) {
+                byUserName.put(user.getUserName().toLowerCase(), user);
+            }
+
+            for (String role : UserFingerprint.roleNames(user)) {
+                String key = role.toLowerCase();
+                List<User> users = byRole.get(key);
+                if (null == users) {
+                    users = new ArrayList<User>();
+                    byRole.put(key, users);
+                }
+
+                users.add(user);
+            }
+        }
+    }
+
+    private final String url;
+    private final String version;
+    private final Listener listener;
+    private volatile String authToken;
+    private volatile Snapshot snapshot = new Snapshot();
+    private volatile long lastSyncMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates an empty directory; call sync() or start() to load it.
+     *
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token, can be replaced later with setAuthToken()
+     * @param version
+     *            version of the API to invoke
+     * @param listener
+     *            receives the changes found by each sync, may be null
+     */
+    public UserDirectory(String url, String authToken, String version, Listener listener) {
+        this.url = url;
+        this.authToken = authToken;
+        this.version = version;
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the current users from IAM and applies any change to the indexes.
+     *
+     * @return true if the users were retrieved
+     */
+    public synchronized boolean sync() {
+        final Snapshot current = snapshot;
+        final Snapshot next = new Snapshot();
+        final List<User> added = new ArrayList<User>();
+        final List<User> updated = new ArrayList<User>();
+
+        boolean ok = IAM.visitUsers(url, authToken, version, new UserVisitor() {
+            public void visitUser(User user) {
+                if (null == user.getId()) {
+                    return;
+                }
+
+                long fingerprint = UserFingerprint.of(user);
+                Long previous = current.fingerprints.get(user.getId());
+                if (null == previous) {
+                    added.add(user);
+                } else if (previous.longValue() != fingerprint) {
+                    updated.add(user);
+                }
+
+                next.add(user, fingerprint);
+            }
+        });
+
+        if (!ok) {
+            return false;
+        }
+
+        List<User> removed = new ArrayList<User>();
+        if (current.byId.size() + added.size() != next.byId.size()) {
+            for (Map.Entry<String, User> entry : current.byId.entrySet()) {
+                if (!next.byId.containsKey(entry.getKey())) {
+                    removed.add(entry.getValue());
+                }
+            }
+        }
+
+        lastSyncMillis = System.currentTimeMillis();
+
+        if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+            return true;
+        }
+
+        snapshot = next;
+
+        if (null != listener) {
+            listener.onChange(added, updated, removed);
+        }
+
+        return true;
+    }
+
+    /**
+     * Syncs now and then every period on a background thread until stop() is called. Failed syncs
+     * keep the current indexes.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (null != scheduler) {
+            return;
+        }
+
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "user-directory-sync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sync();
+                } catch (RuntimeException e) {
+                    System.out.println("User directory sync failed: " + e.getMessage());
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the background sync started with start().
+     */
+    public synchronized void stop() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Replaces the OAUTH token used for the following syncs, e.g. after logging in again.
+     */
+    public void setAuthToken(String authToken) {
+        this.authToken = authToken;
+    }
+
+    /**
+     * Returns the time of the last successful sync, 0 if there was none.
+     */
+    public long getLastSyncMillis() {
+        return lastSyncMillis;
+    }
+
+    /**
+     * Returns the number of users in the directory.
+     */
+    public int size() {
+        return snapshot.byId.size();
+    }
+
+    /**
+     * Returns the user with the passed in id, or null.
+     */
+    public User getById(String id) {
+        return snapshot.byId.get(id);
+    }
+
+    /**
+     * Returns the user with the passed in email, or null.
+     */
+    public User getByEmail(String email) {
+        return null == email ? null : snapshot.byEmail.get(email.toLowerCase());
+    }
+
+    /**
+     * Returns the user with the passed in userName, or null.
+     */
+    public User getByUserName(String userName) {
+        return null == userName ? null : snapshot.byUserName.get(userName.toLowerCase());
+    }
+
+    /**
+     * Returns the users holding the passed in role, never null.
+     */
+    public List<User> getByRole(String role) {
+        List<User> users = null == role ? null : snapshot.byRole.get(role.toLowerCase());
+        return null == users ? Collections.<User> emptyList() : Collections
+                .unmodifiableList(users);
+    }
+
+    /**
+     * Returns all users in the directory.
+     */
+    public List<User> getAll() {
+        return new ArrayList<User>(snapshot.byId.values());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.iam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vmware.vchs.iam.v2.Role;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This class computes a 64 bit FNV-1a hash over the user fields that are managed through IAM
+ * (userName, email, given and family name, state, companyId and the role names). The id and
+ * server maintained fields such as meta or tosAcceptDate are left out, so two users with the same
+ * fingerprint need no update to be made equal. Role order does not matter.
+ */
+public final class UserFingerprint {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private UserFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the passed in user.
+     */
+    public static long of(User user) {
+        long hash = OFFSET_BASIS;
+        hash = hash(hash, user.getUserName());
+        hash = hash(hash, user.getEmail());
+        hash = hash(hash, user.getGivenName());
+        hash = hash(hash, user.getFamilyName());
+        hash = hash(hash, user.getState());
+        hash = hash(hash, user.getCompanyId());
+
+        List<String> roles = roleNames(user);
+        Collections.sort(roles);
+        for (String role : roles) {
+            hash = hash(hash, role);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the role names of the passed in user, never null.
+     */
+    static List<String> roleNames(User user) {
+        List<String> names = new ArrayList<String>();
+        if (null != user.getRoles()) {
+            for (Role role : user.getRoles().getRoles()) {
+                if (null != role.getName()) {
+                    names.add(role.getName());
+                }
+            }
+        }
+
+        return names;
+    }
+
+    private static long hash(long hash, String value) {
+        if (null != value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xff)) * PRIME;
+                hash = (hash ^ (c >>> 8)) * PRIME;
+            }
+        }
+
+        // Field separator, so ("ab", "c") and ("a", "bc") hash differently; null differs from ""
+        hash = (hash ^ (null == value ? 0x100 : 0x101)) * PRIME;
+        return hash;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.iam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+
+import com.vmware.vchs.api.samples.services.IAM;
+import com.vmware.vchs.api.samples.services.helper.UserVisitor;
+import com.vmware.vchs.iam.v2.User;
+
+/**
+ * This class brings the IAM users in line with a desired set of users using the smallest number
+ * of mutating calls. Users are matched on userName (case insensitive). A desired user that does
+ * not exist is created. For an existing user the fields set on the desired user are applied to
+ * it, and it is only updated if that changes its UserFingerprint; fields left unset are not
+ * managed. Existing users that are not desired are only deleted when pruning is enabled, so a
+ * partial desired set can not remove users by accident.
+ *
+ * plan() computes the changes without making any, apply() makes them with at most concurrency
+ * calls in flight.
+ */
+public class UserReconciler {
+    /**
+     * The calls needed to reach the desired state.
+     */
+    public static class Plan {
+        private final List<User> creates = new ArrayList<User>();
+        private final List<User> updates = new ArrayList<User>();
+        private final List<User> deletes = new ArrayList<User>();
+        private int unchanged;
+
+        /**
+         * Returns the desired users that do not exist yet.
+         */
+        public List<User> getCreates() {
+            return creates;
+        }
+
+        /**
+         * Returns the existing users with the desired fields applied, ready for IAM.updateUser.
+         */
+        public List<User> getUpdates() {
+            return updates;
+        }
+
+        /**
+         * Returns the existing users that are not desired, empty unless pruning is enabled.
+         */
+        public List<User> getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * Returns the number of desired users that already match.
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public boolean isEmpty() {
+            return creates.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+        }
+    }
+
+    /**
+     * The number of calls made by apply() that failed.
+     */
+    public static class Result {
+        private final AtomicInteger failedCreates = new AtomicInteger();
+        private final AtomicInteger failedUpdates = new AtomicInteger();
+        private final AtomicInteger failedDeletes = new AtomicInteger();
+
+        public int getFailedCreates() {
+            return failedCreates.get();
+        }
+
+        public int getFailedUpdates() {
+            return failedUpdates.get();
+        }
+
+        public int getFailedDeletes() {
+            return failedDeletes.get();
+        }
+
+        public int getFailed() {
+            return getFailedCreates() + getFailedUpdates() + getFailedDeletes();
+        }
+    }
+
+    private static final String SCIM_CORE_SCHEMA = "urn:scim:schemas:core:1.0";
+
+    private final String url;
+    private final String authToken;
+    private final String version;
+    private final int concurrency;
+    private final boolean prune;
+
+    /**
+     * @param url
+     *            the base API url
+     * @param authToken
+     *            OAUTH 2 token
+     * @param version
+     *            version of the API to invoke
+     * @param concurrency
+     *            the maximum number of concurrent IAM calls made by apply(), at least 1
+     * @param prune
+     *            true to delete existing users that are not in the desired set
+     */
+    public UserReconciler(String url, String authToken, String version, int concurrency,
+            boolean prune) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+
+        this.url = url;
+        this.authToken = authToken;
+        this.version = version;
+        this.concurrency = concurrency;
+        this.prune = prune;
+    }
+
+    /**
+     * Reads the desired users from a CSV or JSON file in the format read by BulkUserPipeline.
+     */
+    public static List<User> readUsers(File file) throws IOException {
+        List<User> users = new ArrayList<User>();
+        BulkUserPipeline.UserSource source = BulkUserPipeline.open(file);
+
+        try {
+            User user;
+            while ((user = source.next()) != null) {
+                users.add(user);
+            }
+        } finally {
+            source.close();
+        }
+
+        return users;
+    }
+
+    /**
+     * Compares the desired users with the users currently in IAM.
+     *
+     * @param desired
+     *            the desired users, each with a userName that no other desired user has (compared
+     *            ignoring case)
+     * @return the plan, or null if the current users could not be retrieved
+     */
+    public Plan plan(Collection<User> desired) {
+        final Map<String, User> wanted = new HashMap<String, User>();
+        for (User user : desired) {
+            if (null == user.getUserName()) {
+                throw new IllegalArgumentException("Desired users must have a userName");
+            }
+
+            if (null != wanted.put(user.getUserName().toLowerCase(), user)) {
+                throw new IllegalArgumentException("More than one desired user has the userName "
+                        + user.getUserName());
+            }
+        }
+
+        final Plan plan = new Plan();
+        final Set<String> seen = new HashSet<String>();
+
+        boolean ok = IAM.visitUsers(url, authToken, version, new UserVisitor() {
+            public void visitUser(User actual) {
+                String key = null != actual.getUserName() ? actual.getUserName().toLowerCase()
+                        : null;
+                User target = null != key ? wanted.get(key) : null;
+
+                if (null == target) {
+                    if (prune && null != actual.getId()) {
+                        plan.deletes.add(actual);
+                    }
+                    return;
+                }
+
+                seen.add(key);
+
+                // Apply the desired fields to the user as returned by IAM, so server maintained
+                // fields are kept, and only update if that changed anything
+                long before = UserFingerprint.of(actual);
+                copyManagedFields(target, actual);
+                if (UserFingerprint.of(actual) == before) {
+                    plan.unchanged++;
+                } else {
+                    plan.updates.add(actual);
+                }
+            }
+        });
+
+        if (!ok) {
+            return null;
+        }
+
+        for (Map.Entry<String, User> entry : wanted.entrySet()) {
+            if (!seen.contains(entry.getKey())) {
+                User user = entry.getValue();
+                if (user.getSchemas().isEmpty()) {
+                    user.getSchemas().add(SCIM_CORE_SCHEMA);
+                }
+
+                plan.creates.add(user);
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * Makes the calls of the passed in plan, at most concurrency at a time, and waits for them to
+     * complete.
+     */
+    public Result apply(Plan plan) throws InterruptedException {
+        final Result result = new Result();
+        List<Callable<Boolean>> calls = new ArrayList<Callable<Boolean>>();
+
+        for (final User user : plan.getCreates()) {
+            calls.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    boolean ok = false;
+                    try {
+                        ok = null != IAM.createUser(url, authToken, user, version);
+                    } finally {
+                        if (!ok) {
+                            result.failedCreates.incrementAndGet();
+                        }
+                    }
+                    return ok;
+                }
+            });
+        }
+
+        for (final User user : plan.getUpdates()) {
+            calls.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    boolean ok = false;
+                    try {
+                        int status = IAM.updateUser(url, authToken, user, version);
+                        ok = status == HttpStatus.SC_NO_CONTENT;
+                    } finally {
+                        if (!ok) {
+                            result.failedUpdates.incrementAndGet();
+                        }
+                    }
+                    return ok;
+                }
+            });
+        }
+
+        for (final User user : plan.getDeletes()) {
+            calls.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    boolean ok = false;
+                    try {
+                        int status = IAM.deleteUser(url, authToken, user.getId(), version);
+                        ok = status == HttpStatus.SC_OK || status == HttpStatus.SC_NO_CONTENT;
+                    } finally {
+                        if (!ok) {
+                            result.failedDeletes.incrementAndGet();
+                        }
+                    }
+                    return ok;
+                }
+            });
+        }
+
+        if (calls.isEmpty()) {
+            return result;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency,
+                calls.size()));
+        try {
+            for (Future<Boolean> future : workers.invokeAll(calls)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.out.println("Reconcile call failed: " + e.getCause().getMessage());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /*
+     * Copies the fields covered by UserFingerprint, fields that are not set in from are left as
+     * they are
+     */
+    static void copyManagedFields(User from, User to) {
+        if (null != from.getEmail()) {
+            to.setEmail(from.getEmail());
+        }
+
+        if (null != from.getGivenName()) {
+            to.setGivenName(from.getGivenName());
+        }
+
+        if (null != from.getFamilyName()) {
+            to.setFamilyName(from.getFamilyName());
+        }
+
+        if (null != from.getState()) {
+            to.setState(from.getState());
+        }
+
+        if (null != from.getCompanyId()) {
+            to.setCompanyId(from.getCompanyId());
+        }
+
+        if (null != from.getRoles()) {
+            to.setRoles(from.getRoles());
+        }
+    }
+}
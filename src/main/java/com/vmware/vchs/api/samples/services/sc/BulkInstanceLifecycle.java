@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.sc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.ServiceController;
+
+/**
+ * This class creates or deletes many service instances with at most concurrency
+ * ServiceController calls in flight, instead of one call after the other. Every item gets its own
+ * ItemResult with the outcome and the latency of its call, returned in the order the items were
+ * passed in, so one failed create does not hide the others.
+ *
+ * Combine it with HttpUtils.enableConnectionPool() sized to the concurrency so the calls reuse
+ * their connections.
+ */
+public class BulkInstanceLifecycle {
+    /**
+     * The plan, service group, name and description of an instance to create.
+     */
+    public static class InstanceSpec {
+        private final String planId;
+        private final String serviceGroupId;
+        private final String name;
+        private final String description;
+
+        public InstanceSpec(String planId, String serviceGroupId, String name, String description) {
+            this.planId = planId;
+            this.serviceGroupId = serviceGroupId;
+            this.name = name;
+            this.description = description;
+        }
+
+        public String getPlanId() {
+            return planId;
+        }
+
+        public String getServiceGroupId() {
+            return serviceGroupId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + planId + ")";
+        }
+    }
+
+    /**
+     * The outcome of the call made for one item.
+     */
+    public static class ItemResult {
+        private final String item;
+        private final boolean success;
+        private final long latencyMillis;
+        private final String error;
+
+        ItemResult(String item, boolean success, long latencyMillis, String error) {
+            this.item = item;
+            this.success = success;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+        }
+
+        /**
+         * Returns the instance name for a create, the instance id for a delete.
+         */
+        public String getItem() {
+            return item;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * Returns the time the call took, from sending the request to reading the response.
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * Returns the message of the exception thrown by the call, or null.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /*
+     * One item, timed
+     */
+    private abstract static class Call implements Callable<ItemResult> {
+        private final String item;
+
+        Call(String item) {
+            this.item = item;
+        }
+
+        abstract boolean invoke();
+
+        public ItemResult call() {
+            long start = System.nanoTime();
+            boolean ok = false;
+            String error = null;
+            try {
+                ok = invoke();
+            } catch (RuntimeException e) {
+                error = e.getMessage();
+            }
+
+            return new ItemResult(item, ok, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - start), error);
+        }
+    }
+
+    private final String url;
+    private final String version;
+    private final String authToken;
+    private final int concurrency;
+
+    /**
+     * @param url
+     *            the base API url
+     * @param version
+     *            version of the API to invoke
+     * @param authToken
+     *            OAUTH 2 token
+     * @param concurrency
+     *            the maximum number of concurrent service controller calls
+     */
+    public BulkInstanceLifecycle(String url, String version, String authToken, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+
+        this.url = url;
+        this.version = version;
+        this.authToken = authToken;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Creates the passed in instances and waits for all calls to complete.
+     *
+     * @return one result per spec, in the order of specs
+     */
+    public List<ItemResult> createInstances(List<InstanceSpec> specs) throws InterruptedException {
+        List<Call> calls = new ArrayList<Call>(specs.size());
+        for (final InstanceSpec spec : specs) {
+            calls.add(new Call(spec.getName()) {
+                boolean invoke() {
+                    return ServiceController.createInstance(url, version, authToken,
+                            spec.getPlanId(), spec.getServiceGroupId(), spec.getName(),
+                            spec.getDescription());
+                }
+            });
+        }
+
+        return run(calls);
+    }
+
+    /**
+     * Deletes the instances with the passed in ids and waits for all calls to complete.
+     *
+     * @return one result per id, in the order of instanceIds
+     */
+    public List<ItemResult> deleteInstances(List<String> instanceIds) throws InterruptedException {
+        List<Call> calls = new ArrayList<Call>(instanceIds.size());
+        for (final String instanceId : instanceIds) {
+            calls.add(new Call(instanceId) {
+                boolean invoke() {
+                    return ServiceController.deleteInstance(url, version, authToken, instanceId);
+                }
+            });
+        }
+
+        return run(calls);
+    }
+
+    private List<ItemResult> run(List<Call> calls) throws InterruptedException {
+        if (calls.isEmpty()) {
+            return new ArrayList<ItemResult>();
+        }
+
+        ItemResult[] results = new ItemResult[calls.size()];
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency,
+                calls.size()));
+        try {
+            List<Future<ItemResult>> futures = workers.invokeAll(calls);
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    // Errors other than RuntimeException, e.g. OutOfMemoryError
+                    results[i] = new ItemResult(calls.get(i).item, false, 0, String.valueOf(e
+                            .getCause()));
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return Arrays.asList(results);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.sc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.api.samples.services.helper.InstanceAttribute;
+import com.vmware.vchs.api.samples.services.helper.JsonCodec;
+import com.vmware.vchs.sc.instance.v1.InstanceType;
+
+/**
+ * This class loads the service controller instances once and indexes them by id, region, plan id
+ * and service group id, so finding e.g. the compute instance of a region is a hash map read
+ * instead of a ServiceController.getInstances call and a scan. Region lookups are case
+ * insensitive and every list keeps the order the instances were returned in.
+ *
+ * The InstanceAttribute JSON of an instance is only parsed the first time getAttribute() is
+ * called for it, and the parsed value is carried over by refresh() as long as the JSON does not
+ * change. refresh() builds a new set of indexes and replaces the current ones in a single volatile
+ * write, so readers never lock. It can be called directly or on a schedule with start().
+ */
+public class InstanceRegistry {
+    /*
+     * An instance and its lazily parsed attributes
+     */
+    private static class Entry {
+        final InstanceType instance;
+        volatile InstanceAttribute attribute;
+
+        Entry(InstanceType instance) {
+            this.instance = instance;
+        }
+
+        InstanceAttribute getAttribute() {
+            InstanceAttribute parsed = attribute;
+            if (null == parsed && null != instance.getInstanceAttributes()) {
+                // Parsing twice on a race is harmless, the results are equal
+                parsed = JsonCodec.fromJson(instance.getInstanceAttributes(),
+                        InstanceAttribute.class);
+                attribute = parsed;
+            }
+
+            return parsed;
+        }
+    }
+
+    /*
+     * One immutable, complete set of indexes
+     */
+    private static class Snapshot {
+        final Map<String, Entry> byId = new LinkedHashMap<String, Entry>();
+        final Map<String, List<InstanceType>> byRegion =
+                new HashMap<String, List<InstanceType>>();
+        final Map<String, List<InstanceType>> byPlanId =
+                new HashMap<String, List<InstanceType>>();
+        final Map<String, List<InstanceType>> byServiceGroup =
+                new HashMap<String, List<InstanceType>>();
+
+        void add(Entry entry) {
+            InstanceType instance = entry.instance;
+            byId.put(instance.getId(), entry);
+
+            if (null != instance.getRegion()) {
+                index(byRegion, instance.getRegion().toLowerCase(), instance);
+            }
+
+            index(byPlanId, instance.getPlanId(), instance);
+            index(byServiceGroup, instance.getServiceGroupId(), instance);
+        }
+
+        private static void index(Map<String, List<InstanceType>> map, String key,
+                InstanceType instance) {
+            if (null == key) {
+                return;
+            }
+
+            List<InstanceType> instances = map.get(key);
+            if (null == instances) {
+                instances = new ArrayList<InstanceType>();
+                map.put(key, instances);
+            }
+
+            instances.add(instance);
+        }
+    }
+
+    private final String url;
+    private final String version;
+    private volatile String authToken;
+    private volatile Snapshot snapshot = new Snapshot();
+    private volatile long lastRefreshMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates an empty registry; call refresh() or start() to load it.
+     *
+     * @param url
+     *            the base API url
+     * @param version
+     *            version of the API to invoke
+     * @param authToken
+     *            OAUTH 2 token, can be replaced later with setAuthToken()
+     */
+    public InstanceRegistry(String url, String version, String authToken) {
+        this.url = url;
+        this.version = version;
+        this.authToken = authToken;
+    }
+
+    /**
+     * Loads the current instances from the service controller and replaces the indexes.
+     *
+     * @return true if the instances were retrieved
+     */
+    public synchronized boolean refresh() {
+        List<InstanceType> instances = ServiceController.getInstances(url, version, authToken);
+        if (null == instances) {
+            return false;
+        }
+
+        Snapshot current = snapshot;
+        Snapshot next = new Snapshot();
+        for (InstanceType instance : instances) {
+            if (null == instance.getId()) {
+                continue;
+            }
+
+            Entry entry = new Entry(instance);
+            Entry previous = current.byId.get(instance.getId());
+            if (null != previous && null != previous.attribute
+                    && equal(previous.instance.getInstanceAttributes(),
+                            instance.getInstanceAttributes())) {
+                entry.attribute = previous.attribute;
+            }
+
+            next.add(entry);
+        }
+
+        snapshot = next;
+        lastRefreshMillis = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Refreshes now and then every period on a background thread until stop() is called. Failed
+     * refreshes keep the current indexes.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (null != scheduler) {
+            return;
+        }
+
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "instance-registry-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    System.out.println("Instance registry refresh failed: " + e.getMessage());
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the background refresh started with start().
+     */
+    public synchronized void stop() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Replaces the OAUTH token used for the following refreshes, e.g. after logging in again.
+     */
+    public void setAuthToken(String authToken) {
+        this.authToken = authToken;
+    }
+
+    /**
+     * Returns the time of the last successful refresh, 0 if there was none.
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * Returns all instances in the order they were returned by the service controller.
+     */
+    public List<InstanceType> getAll() {
+        Snapshot current = snapshot;
+        List<InstanceType> instances = new ArrayList<InstanceType>(current.byId.size());
+        for (Entry entry : current.byId.values()) {
+            instances.add(entry.instance);
+        }
+
+        return instances;
+    }
+
+    /**
+     * Returns the instance with the passed in id, or null.
+     */
+    public InstanceType getById(String id) {
+        Entry entry = snapshot.byId.get(id);
+        return null == entry ? null : entry.instance;
+    }
+
+    /**
+     * Returns the instances in the passed in region, never null.
+     */
+    public List<InstanceType> getByRegion(String region) {
+        return null == region ? Collections.<InstanceType> emptyList() : lookup(
+                snapshot.byRegion, region.toLowerCase());
+    }
+
+    /**
+     * Returns the first instance in the passed in region, or null.
+     */
+    public InstanceType getFirstByRegion(String region) {
+        List<InstanceType> instances = getByRegion(region);
+        return instances.isEmpty() ? null : instances.get(0);
+    }
+
+    /**
+     * Returns the instances of the passed in plan, never null.
+     */
+    public List<InstanceType> getByPlanId(String planId) {
+        return lookup(snapshot.byPlanId, planId);
+    }
+
+    /**
+     * Returns the instances of the passed in service group, never null.
+     */
+    public List<InstanceType> getByServiceGroup(String serviceGroupId) {
+        return lookup(snapshot.byServiceGroup, serviceGroupId);
+    }
+
+    /**
+     * Returns the distinct api urls and session urls of all instances, the hosts the samples call
+     * after the service controller, e.g. to warm up connections to them with HttpUtils.warmUp().
+     */
+    public Set<String> getEndpoints() {
+        Set<String> endpoints = new LinkedHashSet<String>();
+        for (Entry entry : snapshot.byId.values()) {
+            if (null != entry.instance.getApiUrl()) {
+                endpoints.add(entry.instance.getApiUrl());
+            }
+
+            InstanceAttribute attribute = entry.getAttribute();
+            if (null != attribute && null != attribute.getSessionUri()) {
+                endpoints.add(attribute.getSessionUri());
+            }
+        }
+
+        return endpoints;
+    }
+
+    /**
+     * Returns the parsed InstanceAttribute JSON of the passed in instance. The JSON of an instance
+     * held by the registry is parsed once and the result reused.
+     *
+     * @param instance
+     *            the instance
+     * @return the attributes, or null if the instance has none
+     */
+    public InstanceAttribute getAttribute(InstanceType instance) {
+        Entry entry = snapshot.byId.get(instance.getId());
+        if (null == entry
+                || !equal(entry.instance.getInstanceAttributes(),
+                        instance.getInstanceAttributes())) {
+            // Not held by the registry, or its attributes changed since
+            entry = new Entry(instance);
+        }
+
+        return entry.getAttribute();
+    }
+
+    private static List<InstanceType> lookup(Map<String, List<InstanceType>> map, String key) {
+        List<InstanceType> instances = null == key ? null : map.get(key);
+        return null == instances ? Collections.<InstanceType> emptyList() : Collections
+                .unmodifiableList(instances);
+    }
+
+    private static boolean equal(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2014 VMware, Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vmware.vchs.api.samples.services.sc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXB;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import com.vmware.vchs.api.samples.services.ServiceController;
+import com.vmware.vchs.sc.service.v1.ObjectFactory;
+import com.vmware.vchs.sc.service.v1.PlanListType;
+import com.vmware.vchs.sc.service.v1.PlanType;
+
+/**
+ * This class keeps the service controller plan catalog in memory and in a gzip compressed XML
+ * file, indexed by id, region, service name and plan version. Plans change very rarely, so the
+ * catalog persisted by the last run is loaded by the constructor and answers lookups right away;
+ * refresh() then revalidates it against ServiceController.getPlans, directly or on a schedule
+ * with start(). A refresh that finds the same plans keeps the current indexes and does not rewrite
+ * the file. Region and service name lookups are case insensitive.
+ *
+ * Readers never lock, a changed catalog replaces the current indexes in a single volatile write.
+ */
+public class PlanCatalog {
+    private static final ObjectFactory FACTORY = new ObjectFactory();
+
+    private static JAXBContext context;
+
+    /*
+     * One immutable, complete set of indexes
+     */
+    private static class Snapshot {
+        final Map<String, PlanType> byId = new LinkedHashMap<String, PlanType>();
+        final Map<String, List<PlanType>> byRegion = new HashMap<String, List<PlanType>>();
+        final Map<String, List<PlanType>> byServiceName = new HashMap<String, List<PlanType>>();
+        final Map<String, List<PlanType>> byPlanVersion = new HashMap<String, List<PlanType>>();
+
+        Snapshot(List<PlanType> plans) {
+            for (PlanType plan : plans) {
+                if (null == plan.getId()) {
+                    continue;
+                }
+
+                byId.put(plan.getId(), plan);
+                index(byRegion, lower(plan.getRegion()), plan);
+                index(byServiceName, lower(plan.getServiceName()), plan);
+                index(byPlanVersion, plan.getPlanVersion(), plan);
+            }
+        }
+
+        private static void index(Map<String, List<PlanType>> map, String key, PlanType plan) {
+            if (null == key) {
+                return;
+            }
+
+            List<PlanType> plans = map.get(key);
+            if (null == plans) {
+                plans = new ArrayList<PlanType>();
+                map.put(key, plans);
+            }
+
+            plans.add(plan);
+        }
+    }
+
+    private final String url;
+    private final String version;
+    private final File file;
+    private volatile String authToken;
+    private volatile Snapshot snapshot;
+    private volatile long lastRefreshMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a catalog holding the plans persisted in file, if any.
+     *
+     * @param url
+     *            the base API url
+     * @param version
+     *            version of the API to invoke
+     * @param authToken
+     *            OAUTH 2 token, can be replaced later with setAuthToken()
+     * @param file
+     *            the file to persist the catalog in, its directory is created if it does not exist
+     */
+    public PlanCatalog(String url, String version, String authToken, File file) {
+        this.url = url;
+        this.version = version;
+        this.authToken = authToken;
+        this.file = file;
+        this.snapshot = new Snapshot(read(file));
+    }
+
+    /**
+     * Loads the current plans from the service controller. If they differ from the catalog the
+     * indexes are replaced and the file is rewritten.
+     *
+     * @return true if the plans were retrieved
+     */
+    public synchronized boolean refresh() {
+        List<PlanType> plans = ServiceController.getPlans(url, version, authToken);
+        if (null == plans) {
+            return false;
+        }
+
+        lastRefreshMillis = System.currentTimeMillis();
+
+        if (sameAs(snapshot, plans)) {
+            return true;
+        }
+
+        snapshot = new Snapshot(plans);
+        write(file, plans);
+        return true;
+    }
+
+    /**
+     * Refreshes now and then every period on a background thread until stop() is called. Failed
+     * refreshes keep the current catalog.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (null != scheduler) {
+            return;
+        }
+
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "plan-catalog-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    System.out.println("Plan catalog refresh failed: " + e.getMessage());
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the background refresh started with start().
+     */
+    public synchronized void stop() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Replaces the OAUTH token used for the following refreshes, e.g. after logging in again.
+     */
+    public void setAuthToken(String authToken) {
+        this.authToken = authToken;
+    }
+
+    /**
+     * Returns the time of the last successful refresh, 0 if the catalog was only loaded from its
+     * file so far.
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * Returns true if the catalog holds no plans, i.e. there was no file and no successful refresh.
+     */
+    public boolean isEmpty() {
+        return snapshot.byId.isEmpty();
+    }
+
+    /**
+     * Returns all plans in the order they were returned by the service controller.
+     */
+    public List<PlanType> getAll() {
+        return new ArrayList<PlanType>(snapshot.byId.values());
+    }
+
+    /**
+     * Returns the plan with the passed in id, or null.
+     */
+    public PlanType getById(String id) {
+        return snapshot.byId.get(id);
+    }
+
+    /**
+     * Returns the plans in the passed in region, never null.
+     */
+    public List<PlanType> getByRegion(String region) {
+        return lookup(snapshot.byRegion, lower(region));
+    }
+
+    /**
+     * Returns the plans of the passed in service, never null.
+     */
+    public List<PlanType> getByServiceName(String serviceName) {
+        return lookup(snapshot.byServiceName, lower(serviceName));
+    }
+
+    /**
+     * Returns the plans with the passed in plan version, never null.
+     */
+    public List<PlanType> getByPlanVersion(String planVersion) {
+        return lookup(snapshot.byPlanVersion, planVersion);
+    }
+
+    /**
+     * Returns the first plan of the passed in service in the passed in region, or null.
+     */
+    public PlanType find(String region, String serviceName) {
+        String service = lower(serviceName);
+        for (PlanType plan : getByRegion(region)) {
+            if (null != service && service.equals(lower(plan.getServiceName()))) {
+                return plan;
+            }
+        }
+
+        return null;
+    }
+
+    private static List<PlanType> lookup(Map<String, List<PlanType>> map, String key) {
+        List<PlanType> plans = null == key ? null : map.get(key);
+        return null == plans ? Collections.<PlanType> emptyList() : Collections
+                .unmodifiableList(plans);
+    }
+
+    private static boolean sameAs(Snapshot current, List<PlanType> plans) {
+        if (current.byId.size() != plans.size()) {
+            return false;
+        }
+
+        for (PlanType plan : plans) {
+            PlanType held = current.byId.get(plan.getId());
+            if (null == held || !equal(held.getName(), plan.getName())
+                    || !equal(held.getRegion(), plan.getRegion())
+                    || !equal(held.getServiceName(), plan.getServiceName())
+                    || !equal(held.getDescription(), plan.getDescription())
+                    || !equal(held.getPlanVersion(), plan.getPlanVersion())
+                    || !equal(held.getPlanAttributes(), plan.getPlanAttributes())
+                    || !equal(held.getInstanceSpec(), plan.getInstanceSpec())
+                    || !equal(held.getInstanceDefaultSpec(), plan.getInstanceDefaultSpec())
+                    || !equal(held.getBindingSpec(), plan.getBindingSpec())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static List<PlanType> read(File file) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+
+        InputStream is = null;
+        try {
+            is = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+            PlanListType plans = JAXB.unmarshal(is, PlanListType.class);
+            if (null != plans) {
+                return plans.getPlans();
+            }
+        } catch (IOException e) {
+            // An unreadable file is treated as an empty catalog and rewritten by the next refresh
+        } catch (DataBindingException e) {
+            // as above
+        } finally {
+            close(is);
+        }
+
+        return Collections.emptyList();
+    }
+
+    private static void write(File file, List<PlanType> plans) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new RuntimeException("Could not create catalog directory " + parent);
+        }
+
+        PlanListType list = new PlanListType();
+        list.getPlans().addAll(plans);
+
+        // Write to a temporary file first so a reader never sees a partial file
+        File tmp = new File(parent, file.getName() + ".tmp");
+        OutputStream os = null;
+        try {
+            os = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            getContext().createMarshaller().marshal(FACTORY.createPlanList(list), os);
+            os.close();
+            os = null;
+
+            if (!tmp.renameTo(file)) {
+                // renameTo does not replace an existing file on every platform
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Could not rename " + tmp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Problem writing plan catalog file " + file, e);
+        } catch (JAXBException e) {
+            throw new RuntimeException("Problem marshalling plan catalog file " + file, e);
+        } finally {
+            close(os);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static synchronized JAXBContext getContext() throws JAXBException {
+        // JAXBContext creation is expensive, so it is created once and shared
+        if (null == context) {
+            context = JAXBContext.newInstance(PlanListType.class);
+        }
+
+        return context;
+    }
+
+    private static String lower(String s) {
+        return null == s ? null : s.toLowerCase();
+    }
+
+    private static boolean equal(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    private static void close(Closeable c) {
+        if (null != c) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing more can be done
+            }
+        }
+    }
+}